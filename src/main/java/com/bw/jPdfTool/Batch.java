@@ -0,0 +1,333 @@
+package com.bw.jPdfTool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes the jobs of a manifest in one JVM.<br>
+ * The manifest contains one job per line as JSON object. Empty lines and lines starting with '#' are ignored.
+ * Supported members:
+ * <ul>
+ *     <li>"inputs": Array of input files (required).</li>
+ *     <li>"out": The output file.</li>
+ *     <li>"split": Pages per file.</li>
+ *     <li>"merge": Zipper merge specification, "&lt;start&gt;-&lt;amount&gt;-&lt;skip&gt;".</li>
+ *     <li>"password", "ownerPassword", "userPassword": Password for the input, owner- and user-password for the output.</li>
+ *     <li>"certificate", "certificatePassword": p12 file and password to sign the output.</li>
+ *     <li>"loadMode": How input files are read.</li>
+ *     <li>"objectStreamSize": Objects per object stream in the output, 0 for none.</li>
+ *     <li>"deduplicate": Store identical resources only once (true/false).</li>
+ *     <li>"canPrint", "canModify", "canExtractContent", "canExtractForAccessibility", "canFillInForm",
+ *     "canAssemble", "canModifyAnnotations": Permission flags (true/false).</li>
+ *     <li>"args": Array of additional command line arguments.</li>
+ * </ul>
+ * Example:
+ * <pre>{"inputs": ["a.pdf", "b.pdf"], "out": "ab.pdf", "userPassword": "secret", "canPrint": true}</pre>
+ */
+public final class Batch {
+
+    /**
+     * Exit code of a job that could not be parsed.
+     */
+    public static final int EXIT_INVALID_JOB = 20;
+
+    /**
+     * Exit code of a batch if some of its jobs failed.
+     */
+    public static final int EXIT_JOBS_FAILED = 6;
+
+    /**
+     * Exit code of a batch if the manifest could not be read.
+     */
+    public static final int EXIT_MANIFEST_ERROR = 21;
+
+    private static final String[][] OPTIONS = {
+            {"out", "--out"},
+            {"split", "--split"},
+            {"merge", "--merge"},
+            {"password", "--orginalpassword"},
+            {"ownerPassword", "--ownerpassword"},
+            {"userPassword", "--userpassword"},
+            {"certificate", "--certificate"},
+            {"certificatePassword", "--certificatePassword"},
+            {"loadMode", "--load-mode"},
+            {"objectStreamSize", "--object-stream-size"}
+    };
+
+    private static final String[] FLAGS = {
+            "canPrint", "canModify", "canExtractContent", "canExtractForAccessibility",
+            "canFillInForm", "canAssemble", "canModifyAnnotations", "deduplicate"
+    };
+
+    /**
+     * One line of the manifest.
+     */
+    public record Job(int lineNb, String[] arguments, String error) {
+    }
+
+    private Batch() {
+    }
+
+    /**
+     * Reads the jobs of a manifest.
+     *
+     * @param manifest The manifest file.
+     * @return The jobs, jobs with syntax errors have {@link Job#error()} set.
+     * @throws IOException If the file could not be read.
+     */
+    public static List<Job> readManifest(Path manifest) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); ++i) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            try {
+                jobs.add(new Job(i + 1, toArguments(new JsonParser(line).parseObject()), null));
+            } catch (IllegalArgumentException e) {
+                jobs.add(new Job(i + 1, null, e.getMessage()));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Executes the jobs.
+     *
+     * @param jobs     The jobs.
+     * @param parallel The number of jobs to execute in parallel.
+     * @return The exit code of each job.
+     */
+    public static int[] execute(List<Job> jobs, int parallel) throws InterruptedException {
+        int[] exitCodes = new int[jobs.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallel), r -> {
+            Thread t = new Thread(r, "BatchJob");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Integer>> results = new ArrayList<>(jobs.size());
+            for (Job job : jobs)
+                results.add(executor.submit(() -> execute(job)));
+            for (int i = 0; i < jobs.size(); ++i) {
+                Job job = jobs.get(i);
+                try {
+                    exitCodes[i] = results.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.printf("Job in line %d failed: %s%n", job.lineNb(), e.getCause());
+                    exitCodes[i] = 1;
+                }
+                Log.info("Job in line %d finished with exit code %d", job.lineNb(), exitCodes[i]);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return exitCodes;
+    }
+
+    private static int execute(Job job) {
+        if (job.error() != null) {
+            System.err.printf("Error in line %d: %s%n", job.lineNb(), job.error());
+            return EXIT_INVALID_JOB;
+        }
+        return Main.executeJob(job.arguments());
+    }
+
+    static String[] toArguments(Map<String, Object> job) {
+        List<String> args = new ArrayList<>();
+        for (String[] option : OPTIONS) {
+            Object value = job.get(option[0]);
+            if (value != null) {
+                args.add(option[1]);
+                args.add(value instanceof Double d && d == Math.rint(d) ? Long.toString(d.longValue()) : value.toString());
+            }
+        }
+        for (String flag : FLAGS) {
+            Object value = job.get(flag);
+            if (value instanceof Boolean b)
+                args.add(b ? "--" + flag : "--no-" + flag);
+            else if (value != null)
+                throw new IllegalArgumentException("'" + flag + "' needs to be true or false");
+        }
+        args.addAll(getStrings(job, "args"));
+        List<String> inputs = getStrings(job, "inputs");
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("'inputs' missing");
+        args.add("--");
+        args.addAll(inputs);
+        return args.toArray(new String[0]);
+    }
+
+    private static List<String> getStrings(Map<String, Object> job, String name) {
+        Object value = job.get(name);
+        List<String> strings = new ArrayList<>();
+        if (value instanceof List<?> list) {
+            for (Object o : list)
+                strings.add(String.valueOf(o));
+        } else if (value != null) {
+            throw new IllegalArgumentException("'" + name + "' needs to be an array");
+        }
+        return strings;
+    }
+
+    /**
+     * Minimal JSON parser for the manifest lines.
+     */
+    static final class JsonParser {
+
+        private final String text;
+        private int pos = 0;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> parseObject() {
+            skipWhitespace();
+            Object value = parseValue();
+            skipWhitespace();
+            if (!(value instanceof Map) || pos < text.length())
+                throw error("JSON object expected");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) value;
+            return map;
+        }
+
+        private Object parseValue() {
+            skipWhitespace();
+            if (pos >= text.length())
+                throw error("Unexpected end");
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{': {
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    ++pos;
+                    skipWhitespace();
+                    if (peek() == '}') {
+                        ++pos;
+                        return map;
+                    }
+                    do {
+                        skipWhitespace();
+                        String key = parseString();
+                        skipWhitespace();
+                        expect(':');
+                        map.put(key, parseValue());
+                        skipWhitespace();
+                    } while (consume(','));
+                    expect('}');
+                    return map;
+                }
+                case '[': {
+                    List<Object> list = new ArrayList<>();
+                    ++pos;
+                    skipWhitespace();
+                    if (peek() == ']') {
+                        ++pos;
+                        return list;
+                    }
+                    do {
+                        list.add(parseValue());
+                        skipWhitespace();
+                    } while (consume(','));
+                    expect(']');
+                    return list;
+                }
+                case '"':
+                    return parseString();
+                default:
+                    if (text.startsWith("true", pos)) {
+                        pos += 4;
+                        return Boolean.TRUE;
+                    }
+                    if (text.startsWith("false", pos)) {
+                        pos += 5;
+                        return Boolean.FALSE;
+                    }
+                    if (text.startsWith("null", pos)) {
+                        pos += 4;
+                        return null;
+                    }
+                    int start = pos;
+                    while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+                        ++pos;
+                    try {
+                        return Double.parseDouble(text.substring(start, pos));
+                    } catch (NumberFormatException e) {
+                        throw error("Unexpected character '" + c + "'");
+                    }
+            }
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"')
+                    return sb.toString();
+                if (c == '\\') {
+                    if (pos >= text.length())
+                        break;
+                    char e = text.charAt(pos++);
+                    switch (e) {
+                        case 'b' -> sb.append('\b');
+                        case 'f' -> sb.append('\f');
+                        case 'n' -> sb.append('\n');
+                        case 'r' -> sb.append('\r');
+                        case 't' -> sb.append('\t');
+                        case 'u' -> {
+                            if (pos + 4 > text.length())
+                                throw error("Illegal escape");
+                            try {
+                                sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                            } catch (NumberFormatException ne) {
+                                throw error("Illegal escape");
+                            }
+                            pos += 4;
+                        }
+                        default -> sb.append(e);
+                    }
+                } else
+                    sb.append(c);
+            }
+            throw error("Unterminated string");
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                ++pos;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        private boolean consume(char c) {
+            if (peek() == c) {
+                ++pos;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c))
+                throw error("'" + c + "' expected");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at column " + (pos + 1));
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.bw.jPdfTool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Long-running process that executes CLI jobs, so that JVM start and initialization are paid only once.<br>
+ * Listens on a Unix domain socket in the user's cache directory. Directory and socket are restricted to the user
+ * (on file systems with posix permissions).
+ * Clients (calls with --daemon) send the (absolute) arguments of a job and get the exit code back.
+ * The output of the jobs is written to the console of the daemon, so clients check the arguments before forwarding.
+ */
+public final class Daemon {
+
+    private static final String PROTOCOL = "jPdfTool-1";
+    private static final String COMMAND_RUN = "run";
+    private static final String COMMAND_STOP = "stop";
+
+    /**
+     * Exit code if the daemon could not be started.
+     */
+    public static final int EXIT_NOT_STARTED = 12;
+
+    private Daemon() {
+    }
+
+    /**
+     * Gets the path of the socket.
+     */
+    public static Path getSocketPath() {
+        return Preferences.getCacheDirectory().resolve("daemon.sock");
+    }
+
+    /**
+     * Serves jobs until a stop request is received.
+     *
+     * @param parallel The number of jobs to execute in parallel.
+     * @return The exit code.
+     */
+    public static int serve(int parallel) {
+        final Path socketPath = getSocketPath();
+        try {
+            createDirectory(socketPath.getParent());
+            if (Files.exists(socketPath)) {
+                if (isRunning()) {
+                    System.err.printf("A daemon is already running on '%s'.\n", socketPath);
+                    return EXIT_NOT_STARTED;
+                }
+                // Left over from a daemon that was killed.
+                Files.delete(socketPath);
+            }
+        } catch (IOException e) {
+            System.err.printf("Failed to prepare '%s': %s\n", socketPath, e.getMessage());
+            return EXIT_NOT_STARTED;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallel), r -> {
+            Thread t = new Thread(r, "DaemonJob");
+            t.setDaemon(true);
+            return t;
+        });
+        // Requests are read by separate threads, so a client that doesn't send anything blocks only its own thread.
+        ExecutorService readers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "DaemonClient");
+            t.setDaemon(true);
+            return t;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            setPermissions(socketPath, "rw-------");
+            Log.info("Daemon listening on '%s' with %d workers", socketPath, Math.max(1, parallel));
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    // Closed by a stop request.
+                    break;
+                }
+                readers.execute(() -> handle(client, executor, server));
+            }
+            Log.info("Daemon stopped");
+            return 0;
+        } catch (IOException e) {
+            System.err.printf("Daemon failed: %s\n", e.getMessage());
+            return EXIT_NOT_STARTED;
+        } finally {
+            readers.shutdownNow();
+            executor.shutdownNow();
+            SigningContext.clearCache();
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads a request and executes it asynchronously.
+     *
+     * @param server The server channel, closed on a stop request.
+     */
+    private static void handle(SocketChannel client, ExecutorService executor, ServerSocketChannel server) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            if (!PROTOCOL.equals(in.readUTF())) {
+                client.close();
+                return;
+            }
+            String command = in.readUTF();
+            if (COMMAND_STOP.equals(command)) {
+                reply(client, 0);
+                server.close();
+                return;
+            }
+            if (COMMAND_RUN.equals(command)) {
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; ++i)
+                    args[i] = in.readUTF();
+                executor.execute(() -> {
+                    int exitCode;
+                    try {
+                        exitCode = Main.executeJob(args);
+                    } catch (Exception e) {
+                        Log.error("Job failed: %s", e.getMessage());
+                        exitCode = 1;
+                    }
+                    reply(client, exitCode);
+                });
+            } else {
+                client.close();
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            // Rejected if the daemon is stopping.
+            Log.error("Failed to read request: %s", e.getMessage());
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void reply(SocketChannel client, int exitCode) {
+        try (client) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+            out.writeInt(exitCode);
+            out.flush();
+        } catch (IOException e) {
+            Log.error("Failed to send reply: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Forwards a job to a running daemon.
+     *
+     * @param args The arguments of the job. Paths need to be absolute.
+     * @return The exit code of the job or null if no daemon is running.
+     */
+    public static Integer forward(String[] args) {
+        return send(COMMAND_RUN, args);
+    }
+
+    /**
+     * Requests the running daemon to stop. Running jobs are cancelled.
+     *
+     * @return true if a daemon was running.
+     */
+    public static boolean stop() {
+        return send(COMMAND_STOP, new String[0]) != null;
+    }
+
+    /**
+     * Checks if a daemon is listening.
+     */
+    public static boolean isRunning() {
+        try (SocketChannel ignored = connect()) {
+            return ignored != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static SocketChannel connect() throws IOException {
+        Path socketPath = getSocketPath();
+        if (!Files.exists(socketPath))
+            return null;
+        return SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+    }
+
+    private static Integer send(String command, String[] args) {
+        SocketChannel channel;
+        try {
+            channel = connect();
+        } catch (IOException e) {
+            // No daemon listening.
+            return null;
+        }
+        if (channel == null)
+            return null;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeUTF(PROTOCOL);
+            out.writeUTF(command);
+            if (COMMAND_RUN.equals(command)) {
+                out.writeInt(args.length);
+                for (String arg : args)
+                    out.writeUTF(arg);
+            }
+            out.flush();
+            return new DataInputStream(Channels.newInputStream(channel)).readInt();
+        } catch (IOException e) {
+            Log.error("Communication with daemon failed: %s", e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Creates the directory of the socket, only accessible by the user.
+     * The directory may already exist with other permissions, e.g. created by the render cache.
+     */
+    private static void createDirectory(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            try {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } catch (UnsupportedOperationException e) {
+                // Not a posix file system
+                Files.createDirectories(dir);
+            }
+        }
+        setPermissions(dir, "rwx------");
+    }
+
+    private static void setPermissions(Path path, String permissions) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+        } catch (UnsupportedOperationException e) {
+            // Not a posix file system
+        }
+    }
+}
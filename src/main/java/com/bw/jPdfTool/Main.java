@@ -1,8 +1,11 @@
 package com.bw.jPdfTool;
 
 import com.bw.jPdfTool.cli.CommandExecuter;
+import com.bw.jPdfTool.model.LoadMode;
 import com.bw.jPdfTool.model.MergeOptions;
+import com.bw.jPdfTool.model.OutputOptions;
 import com.bw.jPdfTool.ui.UI;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -11,6 +14,7 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import picocli.CommandLine.Spec;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -31,7 +35,7 @@ import java.util.concurrent.Callable;
         })
 public class Main implements Callable<Integer> {
 
-    @Option(names = {"-out", "--out"}, required = true, description = "The path to the output file.")
+    @Option(names = {"-out", "--out"}, description = "The path to the output file. Required if not in batch mode.")
     private String out;
 
     @Option(names = {"-s", "--split"}, paramLabel = "<pages per file>", description = "Split resulting document. Output filename is extended by an index for each file.")
@@ -85,6 +89,41 @@ public class Main implements Callable<Integer> {
             "Password for the certificate.")
     private String signCertPassword = null;
 
+    @Option(names = {"-lm", "--load-mode"}, paramLabel = "<mode>", description =
+            "How input files are read: ${COMPLETION-CANDIDATES}. FILE and MAPPED read on demand and need less memory for large files. Default: ${DEFAULT-VALUE}.")
+    private LoadMode loadMode = LoadMode.AUTO;
+
+    @Option(names = {"-oss", "--object-stream-size"}, paramLabel = "<objects>", description =
+            "Number of objects per compressed object stream in the output, 0 to write without object streams. Default: ${DEFAULT-VALUE}.")
+    private int objectStreamSize = CompressParameters.DEFAULT_OBJECT_STREAM_SIZE;
+
+    @Option(names = {"-dd", "--deduplicate"}, negatable = true, defaultValue = "false", description =
+            "Store identical fonts, images and other resources only once, e.g. after merging similar files.")
+    private boolean deduplicate;
+
+    @Option(names = {"-b", "--batch"}, paramLabel = "<manifest>", description =
+            "Executes all jobs from a manifest file in one process. The manifest contains one job per line as JSON object, e.g. " +
+                    "{\"inputs\": [\"a.pdf\", \"b.pdf\"], \"out\": \"ab.pdf\", \"split\": 2, \"userPassword\": \"secret\"}. " +
+                    "Other members: merge, password, ownerPassword, certificate, certificatePassword, loadMode, objectStreamSize, deduplicate, " +
+                    "the permission flags (e.g. \"canPrint\": true) and args (additional arguments).")
+    private String batchManifest;
+
+    @Option(names = {"--parallel"}, paramLabel = "<jobs>", description = "Number of batch jobs executed in parallel. Default: number of cores.")
+    private int parallelJobs = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--serve"}, description =
+            "Starts a daemon that executes jobs of other jPdfTool calls of this user, until stopped with --stop-daemon. " +
+                    "Calls with --daemon are forwarded to it. Jobs run in parallel, see --parallel.")
+    private boolean serve = false;
+
+    @Option(names = {"--stop-daemon"}, description = "Stops the running daemon.")
+    private boolean stopDaemon = false;
+
+    @Option(names = {"--daemon"}, description =
+            "Forwards the job to the running daemon, see --serve. The output of the job is written to the console of the daemon, " +
+                    "only the exit code is returned. Executed in this process if no daemon is running.")
+    private boolean useDaemon = false;
+
     @Spec
     private CommandSpec spec;
 
@@ -111,6 +150,21 @@ public class Main implements Callable<Integer> {
             signaturePassword = signCertPassword.toCharArray();
         signCertPassword = null;
 
+        if (serve || stopDaemon)
+            return 0;
+
+        if (batchManifest != null) {
+            this.batchFile = Paths.get(batchManifest);
+            if (!Files.exists(batchFile)) {
+                System.err.printf("File '%s' doesn't exists.\n", batchFile);
+                return 11;
+            }
+            return 0;
+        }
+
+        if (fileArguments == null)
+            return 0;
+
         for (String f : fileArguments) {
             Path p = Paths.get(f);
             if (Files.exists(p))
@@ -125,6 +179,7 @@ public class Main implements Callable<Integer> {
     private boolean cli = false;
 
     private Path outfile;
+    private Path batchFile;
     private final List<Path> files = new ArrayList<>();
 
     private Path signatureFile;
@@ -163,6 +218,16 @@ public class Main implements Callable<Integer> {
      */
     protected int executeCommands() {
 
+        if (serve)
+            return Daemon.serve(parallelJobs);
+        if (stopDaemon) {
+            if (!Daemon.stop())
+                System.err.println("No daemon running.");
+            return 0;
+        }
+        if (batchFile != null)
+            return executeBatch();
+
         if (files.isEmpty()) {
             System.err.println("No file arguments given.");
             usage(System.err);
@@ -173,30 +238,55 @@ public class Main implements Callable<Integer> {
             usage(System.err);
             return 3;
         }
-        CommandExecuter executer = new CommandExecuter(files);
-        try {
-            MergeOptions mo = null;
-            if (!mergeOptions.isEmpty()) {
-                String[] mergeParams = mergeOptions.split("-");
-                if (mergeParams.length != 3) {
-                    System.err.println("error in '-merge' argument.");
-                    usage(System.err);
-                    return 4;
-                }
-                mo = new MergeOptions();
-                try {
-                    mo.startPageNb = Integer.parseInt(mergeParams[0]);
-                    mo.segmentLength = Integer.parseInt(mergeParams[1]);
-                    mo.gapLength = Integer.parseInt(mergeParams[2]);
-                } catch (NumberFormatException ne) {
-                    System.err.println("illegal number in '-merge' argument.");
-                    usage(System.err);
-                    return 5;
-                }
-                System.out.println("Merging " + mo);
+
+        if (ownerpassword.isEmpty() && !userpassword.isEmpty()) {
+            ownerpassword = UUID.randomUUID().toString();
+            System.out.println("Generated owner password: " + ownerpassword);
+        }
+
+        // Checked before the job is forwarded, the daemon doesn't report errors to this console.
+        MergeOptions mo = null;
+        if (!mergeOptions.isEmpty()) {
+            String[] mergeParams = mergeOptions.split("-");
+            if (mergeParams.length != 3) {
+                System.err.println("error in '-merge' argument.");
+                usage(System.err);
+                return 4;
+            }
+            mo = new MergeOptions();
+            try {
+                mo.startPageNb = Integer.parseInt(mergeParams[0]);
+                mo.segmentLength = Integer.parseInt(mergeParams[1]);
+                mo.gapLength = Integer.parseInt(mergeParams[2]);
+            } catch (NumberFormatException ne) {
+                System.err.println("illegal number in '-merge' argument.");
+                usage(System.err);
+                return 5;
+            }
+        }
+
+        if (useDaemon) {
+            Integer exitCode = Daemon.forward(toArguments());
+            if (exitCode != null) {
+                if (exitCode != 0)
+                    System.err.printf("Daemon job failed with exit code %d, see the console of the daemon.\n", exitCode);
+                return exitCode;
             }
+            System.err.println("No daemon running, executing the job in this process.");
+        }
 
+        if (mo != null)
+            System.out.println("Merging " + mo);
+
+        CommandExecuter executer = new CommandExecuter(files);
+        executer.setLoadMode(loadMode);
+        OutputOptions outputOptions = new OutputOptions();
+        outputOptions.objectStreamSize = Math.max(0, objectStreamSize);
+        outputOptions.deduplicate = deduplicate;
+        executer.setOutputOptions(outputOptions);
+        try {
             // TODO: Currently all input files are merged and protected.
+            executer.setOutputFile(outfile);
             executer.loadDocuments(password2Load, mo);
 
             AccessPermission ap = new AccessPermission();
@@ -211,11 +301,6 @@ public class Main implements Callable<Integer> {
             // TODO: Add cli for that
             int encryptionKeyLength = 256;
 
-            if (ownerpassword.isEmpty() && !userpassword.isEmpty()) {
-                ownerpassword = UUID.randomUUID().toString();
-                System.out.println("Generated owner password: " + ownerpassword);
-            }
-
             if (this.splitToPagesPerFile > 0) {
                 executer.split(this.splitToPagesPerFile,
                         ownerpassword, userpassword, ap, encryptionKeyLength, outfile,
@@ -236,6 +321,112 @@ public class Main implements Callable<Integer> {
         return 0;
     }
 
+    /**
+     * Executes one job in this process.
+     *
+     * @param args The command line arguments of the job.
+     * @return The exit code (0 for success).
+     */
+    static int executeJob(String[] args) {
+        Main main = new Main();
+        int exitCode = new CommandLine(main).execute(args);
+        if (exitCode == 0 && (main.batchManifest != null || main.serve || main.stopDaemon)) {
+            // Would start another batch, block the worker or stop the daemon.
+            System.err.println("--batch, --serve and --stop-daemon are not allowed in jobs.");
+            return Batch.EXIT_INVALID_JOB;
+        }
+        if (exitCode == 0 && !main.isHelpRequested()) {
+            // Never forward jobs of batches or the daemon.
+            main.useDaemon = false;
+            exitCode = main.executeCommands();
+        }
+        return exitCode;
+    }
+
+    /**
+     * Creates the arguments for the current job with absolute paths, used to forward it to the daemon.
+     */
+    protected String[] toArguments() {
+        List<String> args = new ArrayList<>();
+        args.add("--out");
+        args.add(outfile.toAbsolutePath().toString());
+        if (splitToPagesPerFile > 0) {
+            args.add("--split");
+            args.add(Integer.toString(splitToPagesPerFile));
+        }
+        if (!mergeOptions.isEmpty()) {
+            args.add("--merge");
+            args.add(mergeOptions);
+        }
+        if (password2Load != null) {
+            args.add("--orginalpassword");
+            args.add(password2Load);
+        }
+        args.add("--ownerpassword");
+        args.add(ownerpassword);
+        args.add("--userpassword");
+        args.add(userpassword);
+        args.add(canPrint ? "--canPrint" : "--no-canPrint");
+        args.add(canModify ? "--canModify" : "--no-canModify");
+        args.add(canExtractContent ? "--canExtractContent" : "--no-canExtractContent");
+        args.add(canExtractForAccessibility ? "--canExtractForAccessibility" : "--no-canExtractForAccessibility");
+        args.add(canFillInForm ? "--canFillInForm" : "--no-canFillInForm");
+        args.add(canAssemble ? "--canAssemble" : "--no-canAssemble");
+        args.add(canModifyAnnotations ? "--canModifyAnnotations" : "--no-canModifyAnnotations");
+        if (signatureFile != null) {
+            args.add("--certificate");
+            args.add(signatureFile.toAbsolutePath().toString());
+        }
+        if (signaturePassword != null) {
+            args.add("--certificatePassword");
+            args.add(new String(signaturePassword));
+        }
+        args.add("--load-mode");
+        args.add(loadMode.name());
+        args.add("--object-stream-size");
+        args.add(Integer.toString(objectStreamSize));
+        args.add(deduplicate ? "--deduplicate" : "--no-deduplicate");
+        args.add("--");
+        for (Path f : files)
+            args.add(f.toAbsolutePath().toString());
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Execute the jobs from the batch manifest.
+     *
+     * @return The exit code, 0 if all jobs succeeded, {@link Batch#EXIT_JOBS_FAILED} if some jobs failed,
+     * {@link Batch#EXIT_MANIFEST_ERROR} if the manifest could not be read.
+     */
+    protected int executeBatch() {
+        List<Batch.Job> jobs;
+        try {
+            jobs = Batch.readManifest(batchFile);
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("Failed to read batch '%s': %s\n", batchFile, e.getMessage());
+            return Batch.EXIT_MANIFEST_ERROR;
+        }
+        try {
+            int[] exitCodes = Batch.execute(jobs, parallelJobs);
+            int failed = 0;
+            for (int i = 0; i < exitCodes.length; ++i) {
+                if (exitCodes[i] != 0) {
+                    ++failed;
+                    System.err.printf("Job in line %d failed with exit code %d\n", jobs.get(i).lineNb(), exitCodes[i]);
+                }
+            }
+            System.out.printf("%d of %d jobs succeeded.\n", jobs.size() - failed, jobs.size());
+            return failed == 0 ? 0 : Batch.EXIT_JOBS_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.printf("Batch '%s' interrupted.\n", batchFile);
+            return Batch.EXIT_JOBS_FAILED;
+        } finally {
+            // Keys are only shared by the jobs of the batch.
+            SigningContext.clearCache();
+        }
+    }
+
     protected void createUI() {
         UI.createUI(files);
     }
@@ -1,7 +1,13 @@
 package com.bw.jPdfTool;
 
+import com.bw.jPdfTool.model.LoadMode;
+import com.bw.jPdfTool.model.OutputOptions;
+import com.bw.jPdfTool.model.PackedImage;
+
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.nio.file.Path;
+import java.util.Locale;
 
 public class Preferences {
 
@@ -55,6 +61,41 @@ public class Preferences {
      */
     public final static String USER_PREF_DPI = "dpi";
 
+    /**
+     * User preferences key for the number of render threads.
+     */
+    public final static String USER_PREF_RENDER_THREADS = "render-threads";
+
+    /**
+     * User preferences key for the size of the page image cache in MB.
+     */
+    public final static String USER_PREF_IMAGE_CACHE_MB = "image-cache-mb";
+
+    /**
+     * User preferences key for the storage of page images, "heap", "direct" or "mapped".
+     */
+    public final static String USER_PREF_IMAGE_STORAGE = "image-storage";
+
+    /**
+     * User preferences key for the size of the render cache on disk in MB, 0 to disable.
+     */
+    public final static String USER_PREF_DISK_CACHE_MB = "disk-cache-mb";
+
+    /**
+     * User preferences key for the way files are read, see {@link LoadMode}.
+     */
+    public final static String USER_PREF_LOAD_MODE = "load-mode";
+
+    /**
+     * User preferences key for the number of objects per object stream on save, see {@link OutputOptions}.
+     */
+    public final static String USER_PREF_OBJECT_STREAM_SIZE = "object-stream-size";
+
+    /**
+     * User preferences key to deduplicate resources of merged documents, see {@link OutputOptions}.
+     */
+    public final static String USER_PREF_DEDUPLICATE = "deduplicate-resources";
+
     public final static String USER_PREF_VIEWER_ANTIALIASING = "ViewerAA";
     public final static boolean USER_PREF_VIEWER_ANTIALIASING_DEFAULT = true;
 
@@ -89,6 +130,25 @@ public class Preferences {
 
     private static final Preferences instance = new Preferences();
 
+    /**
+     * Gets the directory for cache and runtime files of this user, dependent on the platform.
+     * The directory is not created.
+     */
+    public static Path getCacheDirectory() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        String home = System.getProperty("user.home");
+        Path base;
+        if (os.contains("win") && System.getenv("LOCALAPPDATA") != null)
+            base = Path.of(System.getenv("LOCALAPPDATA"));
+        else if (os.contains("mac"))
+            base = Path.of(home, "Library", "Caches");
+        else if (System.getenv("XDG_CACHE_HOME") != null)
+            base = Path.of(System.getenv("XDG_CACHE_HOME"));
+        else
+            base = Path.of(home, ".cache");
+        return base.resolve("jPdfTool");
+    }
+
     public static Preferences getInstance() {
         return instance;
     }
@@ -128,6 +188,83 @@ public class Preferences {
         return dpiSetting;
     }
 
+    /**
+     * Get setting {@value USER_PREF_RENDER_THREADS} with sanity check to ensure range [1 - 64].
+     *
+     * @return the number of render threads, defaults to the number of available cores.
+     */
+    public int getRenderThreads() {
+        int threads = this.getInt(Preferences.USER_PREF_RENDER_THREADS, Runtime.getRuntime().availableProcessors());
+        if (threads < 1)
+            threads = 1;
+        else if (threads > 64)
+            threads = 64;
+        return threads;
+    }
+
+    /**
+     * Get setting {@value USER_PREF_IMAGE_CACHE_MB} with sanity check to ensure a minimum of 64 MB.
+     *
+     * @return the size of the page image cache in bytes, defaults to a quarter of the maximal heap.
+     */
+    public long getImageCacheSize() {
+        long defaultMB = Runtime.getRuntime().maxMemory() / (4 * 1024 * 1024);
+        long cacheMB = this.prefs.getLong(Preferences.USER_PREF_IMAGE_CACHE_MB, defaultMB);
+        if (cacheMB < 64)
+            cacheMB = 64;
+        return cacheMB * 1024 * 1024;
+    }
+
+    /**
+     * Get setting {@value USER_PREF_IMAGE_STORAGE}.
+     *
+     * @return the storage for page images, defaults to {@link PackedImage.Storage#HEAP}.
+     */
+    public PackedImage.Storage getImageStorage() {
+        String storage = this.prefs.get(Preferences.USER_PREF_IMAGE_STORAGE, PackedImage.Storage.HEAP.name());
+        try {
+            return PackedImage.Storage.valueOf(storage.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Log.error("Unknown image storage '%s'", storage);
+            return PackedImage.Storage.HEAP;
+        }
+    }
+
+    /**
+     * Get setting {@value USER_PREF_DISK_CACHE_MB}.
+     *
+     * @return the size of the render cache on disk in bytes, 0 if disabled (default).
+     */
+    public long getDiskCacheSize() {
+        long cacheMB = this.prefs.getLong(Preferences.USER_PREF_DISK_CACHE_MB, 0);
+        return Math.max(0, cacheMB) * 1024 * 1024;
+    }
+
+    /**
+     * Get setting {@value USER_PREF_LOAD_MODE}.
+     *
+     * @return the load mode, defaults to {@link LoadMode#AUTO}.
+     */
+    public LoadMode getLoadMode() {
+        return LoadMode.parse(this.prefs.get(Preferences.USER_PREF_LOAD_MODE, null));
+    }
+
+    /**
+     * Get setting {@value USER_PREF_OBJECT_STREAM_SIZE} and {@value USER_PREF_DEDUPLICATE}.
+     *
+     * @param compression If false, no object streams are used.
+     * @return The options for saving documents.
+     */
+    public OutputOptions getOutputOptions(boolean compression) {
+        OutputOptions options = new OutputOptions();
+        if (compression)
+            options.objectStreamSize = Math.max(1, this.getInt(USER_PREF_OBJECT_STREAM_SIZE, options.objectStreamSize));
+        else
+            options.objectStreamSize = 0;
+        options.deduplicate = this.getBoolean(USER_PREF_DEDUPLICATE, false);
+        return options;
+    }
+
     public String getString(String key, String defaultValue) {
         return prefs.get(key, defaultValue);
     }
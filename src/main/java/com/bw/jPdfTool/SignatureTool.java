@@ -4,15 +4,6 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
 import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureInterface;
 import org.apache.pdfbox.pdmodel.interactive.digitalsignature.SignatureOptions;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
-import org.bouncycastle.cms.CMSProcessableByteArray;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
@@ -24,20 +15,17 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.PrivateKey;
-import java.security.Security;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 /**
  * Tool for signing.<br>
- * Based on PdfBox Example <a href="https://svn.apache.org/repos/asf/pdfbox/trunk/examples/src/main/java/org/apache/pdfbox/examples/signature">Signature</a>.
+ * Based on PdfBox Example <a href="https://svn.apache.org/repos/asf/pdfbox/trunk/examples/src/main/java/org/apache/pdfbox/examples/signature">Signature</a>.<br>
+ * If created with a {@link SigningContext}, the tool is thread-safe and can sign any number of documents.
  */
 public class SignatureTool implements SignatureInterface {
 
@@ -48,15 +36,24 @@ public class SignatureTool implements SignatureInterface {
      */
     public SignatureTool()
             throws KeyStoreException, NoSuchProviderException {
-        Security.addProvider(new BouncyCastleProvider());
+        SigningContext.registerProvider();
         keystore = KeyStore.getInstance("PKCS12", "BC");
+    }
 
+    /**
+     * Creates a tool that signs with an already loaded key.<br>
+     * The tool has no key store, methods that need one throw an {@link IllegalStateException}.
+     *
+     * @param context The key to sign with.
+     */
+    public SignatureTool(SigningContext context) {
+        this.keystore = null;
+        this.context = context;
     }
 
     private final KeyStore keystore;
     private boolean keyStoreLoaded = false;
-    private PrivateKey privateKey;
-    private Certificate[] certificateChain;
+    private volatile SigningContext context;
 
     /**
      * SignatureInterface sample implementation.
@@ -67,40 +64,21 @@ public class SignatureTool implements SignatureInterface {
      */
     @Override
     public byte[] sign(InputStream content) throws IOException {
-        try {
-            // Use an CMS (Cryptographic Message Syntax) container to make the PDF happy.
-            CMSProcessableByteArray processable = new CMSProcessableByteArray(content.readAllBytes());
-
-            ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
-                    .setProvider("BC")
-                    .build(this.privateKey);
-
-            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
-            gen.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(
-                            new JcaDigestCalculatorProviderBuilder().setProvider("BC").build()
-                    ).build(signer, (X509Certificate) certificateChain[0])
-            );
-
-            List<X509Certificate> certList = new ArrayList<>();
-            for (Certificate c : certificateChain) {
-                certList.add((X509Certificate) c);
-            }
-            gen.addCertificates(new JcaCertStore(certList));
-
-            CMSSignedData signedData = gen.generate(processable, false);
-            return signedData.getEncoded();
+        return context.sign(content);
+    }
 
-        } catch (Exception e) {
-            throw new IOException("CMS signing failed", e);
-        }
+    private KeyStore getKeyStore() {
+        if (keystore == null)
+            throw new IllegalStateException("Tool was created with a signing context and has no key store.");
+        return keystore;
     }
 
     protected Set<String> getAliases() throws KeyStoreException {
+        KeyStore keystore = getKeyStore();
         HashSet<String> s = new HashSet<>();
 
         if (this.keyStoreLoaded) {
-            var e = this.keystore.aliases();
+            var e = keystore.aliases();
             while (e.hasMoreElements())
                 s.add(e.nextElement());
         }
@@ -114,7 +92,7 @@ public class SignatureTool implements SignatureInterface {
             CertificateException, IOException, NoSuchAlgorithmException, KeyStoreException {
 
         Set<String> before = getAliases();
-        this.keystore.load(is, pin);
+        getKeyStore().load(is, pin);
         this.keyStoreLoaded = true;
         Set<String> after = getAliases();
 
@@ -131,30 +109,30 @@ public class SignatureTool implements SignatureInterface {
     public void addSignature(PDDocument document, String keyAlias, char[] pin)
             throws Exception {
 
+        KeyStore keystore = getKeyStore();
         if (!this.keyStoreLoaded)
             throw new IllegalStateException("Key needs to be loaded before Signature can be added.");
 
-        this.certificateChain = null;
         if (keyAlias == null) {
-            keyAlias = this.keystore.aliases().nextElement();
-        }
-        this.privateKey = (PrivateKey) keystore.getKey(keyAlias, pin);
-        if (this.privateKey == null) {
-            throw new IOException("Could not find certificate " + keyAlias);
+            keyAlias = keystore.aliases().nextElement();
         }
+        this.context = SigningContext.create(keystore, keyAlias, pin);
+        addSignature(document);
+    }
 
-        Certificate[] certChain = keystore.getCertificateChain(keyAlias);
-        if (certChain == null) {
-            throw new IOException("Could not find certificate " + keyAlias);
-        }
-        this.certificateChain = certChain;
-        Certificate cert = certChain[0];
-        if (cert instanceof X509Certificate) {
-            // avoid expired certificate
-            ((X509Certificate) cert).checkValidity();
-        }
+    /**
+     * Adds a signature with the key of the signing context.
+     */
+    public void addSignature(PDDocument document) throws Exception {
+        final SigningContext context = this.context;
+        if (context == null)
+            throw new IllegalStateException("Key needs to be loaded before Signature can be added.");
+
+        X509Certificate cert = context.getCertificate();
+        // avoid expired certificate
+        cert.checkValidity();
 
-        Log.debug("Using Key '%s' for signing", keyAlias);
+        Log.debug("Using Key '%s' for signing", context.alias);
 
         PDSignature signature = new PDSignature();
         signature.setFilter(PDSignature.FILTER_ADOBE_PPKLITE);
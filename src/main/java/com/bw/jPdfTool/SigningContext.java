@@ -0,0 +1,257 @@
+package com.bw.jPdfTool;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.CMSTypedData;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key material for signing, loaded once and reusable.<br>
+ * Instances are immutable and can be used by any number of threads in parallel.
+ * Only the objects that hold state during one signature (content signer and CMS generator) are created per signature.
+ */
+public final class SigningContext {
+
+    /**
+     * Maximal number of contexts kept by {@link #get(Path, char[])}.
+     */
+    public static final int CACHE_SIZE = 8;
+
+    /**
+     * Contexts not used for this time are removed from the cache, so keys don't stay in memory of long-running
+     * processes (e.g. the daemon).
+     */
+    public static final long CACHE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private record CacheEntry(SigningContext context, long lastUsed) {
+    }
+
+    /**
+     * Guarded by itself. Ordered by access, the least recently used context is removed if the cache is full.
+     */
+    private static final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Random salt of this process for the hash of the pin in the cache key.
+     */
+    private static final byte[] salt = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(salt);
+        registerProvider();
+    }
+
+    public final String alias;
+    public final PrivateKey privateKey;
+    private final List<X509Certificate> certificateChain;
+    private final JcaCertStore certStore;
+    private final DigestCalculatorProvider digestCalculatorProvider;
+
+    private SigningContext(String alias, PrivateKey privateKey, List<X509Certificate> certificateChain)
+            throws GeneralSecurityException, IOException {
+        this.alias = alias;
+        this.privateKey = privateKey;
+        this.certificateChain = Collections.unmodifiableList(certificateChain);
+        try {
+            this.certStore = new JcaCertStore(certificateChain);
+            this.digestCalculatorProvider = new JcaDigestCalculatorProviderBuilder()
+                    .setProvider(BouncyCastleProvider.PROVIDER_NAME).build();
+        } catch (GeneralSecurityException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to initialize signing", e);
+        }
+    }
+
+    /**
+     * Registers the BouncyCastle provider if not already done.
+     */
+    public static synchronized void registerProvider() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+            Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /**
+     * Gets the context for a p12 file. The file is only loaded again if it was changed
+     * or the context expired, see {@link #CACHE_EXPIRY_MILLIS}.
+     *
+     * @param keyFile The p12 file.
+     * @param pin     The password of the file and the key.
+     * @return The context for the first key in the file.
+     */
+    public static SigningContext get(Path keyFile, char[] pin) throws GeneralSecurityException, IOException {
+        final Path file = keyFile.toAbsolutePath();
+        final String cacheKey = file + "|" + Files.getLastModifiedTime(file).toMillis() + "|" + Files.size(file) + "|" + digest(pin);
+        final long now = System.currentTimeMillis();
+        synchronized (cache) {
+            cache.values().removeIf(e -> now - e.lastUsed() > CACHE_EXPIRY_MILLIS);
+            CacheEntry entry = cache.get(cacheKey);
+            if (entry != null) {
+                cache.put(cacheKey, new CacheEntry(entry.context(), now));
+                return entry.context();
+            }
+        }
+        KeyStore keystore = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
+        try (InputStream is = Files.newInputStream(file)) {
+            keystore.load(is, pin);
+        }
+        SigningContext context = create(keystore, null, pin);
+        synchronized (cache) {
+            // Old versions of the file are not needed anymore.
+            cache.keySet().removeIf(k -> k.startsWith(file + "|"));
+            cache.put(cacheKey, new CacheEntry(context, now));
+        }
+        Log.debug("Loaded key '%s' from '%s'", context.alias, file);
+        return context;
+    }
+
+    /**
+     * Removes all contexts from the cache.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Creates a context from a loaded keystore.
+     *
+     * @param keystore The keystore.
+     * @param alias    The alias of the key. If null, the first key is used.
+     * @param pin      The password of the key.
+     */
+    public static SigningContext create(KeyStore keystore, String alias, char[] pin) throws GeneralSecurityException, IOException {
+        if (alias == null) {
+            Enumeration<String> aliases = keystore.aliases();
+            while (aliases.hasMoreElements()) {
+                String a = aliases.nextElement();
+                if (alias == null || (keystore.isKeyEntry(a) && !keystore.isKeyEntry(alias)))
+                    alias = a;
+            }
+            if (alias == null)
+                throw new IOException("No key found");
+        }
+        PrivateKey privateKey = (PrivateKey) keystore.getKey(alias, pin);
+        if (privateKey == null) {
+            throw new IOException("Could not find certificate " + alias);
+        }
+        Certificate[] certChain = keystore.getCertificateChain(alias);
+        if (certChain == null) {
+            throw new IOException("Could not find certificate " + alias);
+        }
+        List<X509Certificate> certList = new ArrayList<>(certChain.length);
+        for (Certificate c : certChain) {
+            certList.add((X509Certificate) c);
+        }
+        return new SigningContext(alias, privateKey, certList);
+    }
+
+    /**
+     * Gets the certificate of the key.
+     */
+    public X509Certificate getCertificate() {
+        return certificateChain.get(0);
+    }
+
+    /**
+     * Creates the CMS signature for the content.
+     *
+     * @param content The bytes given by the byte range of the signature.
+     * @return The encoded signature.
+     */
+    public byte[] sign(InputStream content) throws IOException {
+        try {
+            // Use an CMS (Cryptographic Message Syntax) container to make the PDF happy.
+            // The content is streamed through the digest calculators and never held in memory.
+            CMSTypedData processable = new CMSProcessableInputStream(content);
+
+            ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+                    .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+                    .build(this.privateKey);
+
+            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+            gen.addSignerInfoGenerator(
+                    new JcaSignerInfoGeneratorBuilder(digestCalculatorProvider).build(signer, getCertificate()));
+            gen.addCertificates(certStore);
+
+            CMSSignedData signedData = gen.generate(processable, false);
+            return signedData.getEncoded();
+        } catch (Exception e) {
+            throw new IOException("CMS signing failed", e);
+        }
+    }
+
+    /**
+     * Content for a detached signature that is read once from a stream.
+     */
+    private static final class CMSProcessableInputStream implements CMSTypedData {
+
+        private final InputStream in;
+
+        CMSProcessableInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public Object getContent() {
+            return in;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException, CMSException {
+            in.transferTo(out);
+        }
+
+        @Override
+        public ASN1ObjectIdentifier getContentType() {
+            return CMSObjectIdentifiers.data;
+        }
+    }
+
+    private static String digest(char[] pin) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(salt);
+        if (pin != null)
+            md.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(pin)));
+        return HexFormat.of().formatHex(md.digest());
+    }
+}
@@ -2,19 +2,21 @@ package com.bw.jPdfTool.cli;
 
 import com.bw.jPdfTool.Log;
 import com.bw.jPdfTool.model.DocumentProxy;
+import com.bw.jPdfTool.model.LoadMode;
 import com.bw.jPdfTool.model.MergeOptions;
 import com.bw.jPdfTool.model.PdfLoadWorker;
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
 
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.function.Consumer;
 
 /**
- * PDF load worker for CLI (not concurrently).
+ * PDF load worker for CLI.<br>
+ * Loading is done in two phases: {@link #parse()} can be called concurrently for different files,
+ * {@link #finish()} adds the document to the proxy and has to be called in the order of the files.
  */
 public class CliPdfLoader implements PdfLoadWorker {
 
@@ -23,35 +25,67 @@ public class CliPdfLoader implements PdfLoadWorker {
     protected final MergeOptions mo;
     protected Consumer<PDDocument> consumer;
     private final String ownerPassword;
+    private final LoadMode loadMode;
+    private boolean readFromCopy = false;
     private boolean finished = false;
+    private PDDocument document;
+    private String error;
 
     public CliPdfLoader(DocumentProxy proxy, Path file, MergeOptions mo, String ownerPassword) {
+        this(proxy, file, mo, ownerPassword, LoadMode.AUTO);
+    }
+
+    public CliPdfLoader(DocumentProxy proxy, Path file, MergeOptions mo, String ownerPassword, LoadMode loadMode) {
         this.documentProxy = proxy;
         this.file = file;
         this.mo = mo;
         this.ownerPassword = ownerPassword;
+        this.loadMode = loadMode == null ? LoadMode.AUTO : loadMode;
+    }
+
+    /**
+     * Reads the file from a temporary copy, so that the file can be replaced by the output.
+     * See {@link LoadMode#loadCopy(Path, String)}.
+     */
+    public void setReadFromCopy(boolean readFromCopy) {
+        this.readFromCopy = readFromCopy;
     }
 
     @Override
     public void execute() {
-        PDDocument document = null;
+        parse();
+        finish();
+    }
+
+    /**
+     * Parses the file. Doesn't touch the proxy, so it can be called from any thread.
+     */
+    public void parse() {
         try {
-            byte[] data = Files.readAllBytes(file);
-            document = ownerPassword != null
-                    ? Loader.loadPDF(data, ownerPassword)
-                    : Loader.loadPDF(data);
-            documentProxy.error = null;
+            document = readFromCopy ? loadMode.loadCopy(file, ownerPassword) : loadMode.load(file, ownerPassword);
+            error = null;
         } catch (InvalidPasswordException ep) {
-            documentProxy.error = "File is encrypted and owner password\ndoesn't match";
+            error = "File is encrypted and owner password\ndoesn't match";
         } catch (NoSuchFileException fe) {
-            documentProxy.error = String.format("File '%s' does not exist", file.getFileName());
+            error = String.format("File '%s' does not exist", file.getFileName());
         } catch (Exception e) {
-            documentProxy.error = e.getMessage();
+            error = e.getMessage();
         }
+    }
+
+    /**
+     * Adds the parsed document to the proxy (or reports the error).
+     */
+    public void finish() {
+        final PDDocument document = this.document;
+        this.document = null;
+        documentProxy.error = error;
         this.finished = true;
 
         try {
-            if (!documentProxy.isClosed()) {
+            if (documentProxy.isClosed()) {
+                IOUtils.closeQuietly(document);
+            } else {
                 if (document != null) {
                     if (consumer != null)
                         consumer.accept(document);
@@ -2,25 +2,40 @@ package com.bw.jPdfTool.cli;
 
 import com.bw.jPdfTool.Log;
 import com.bw.jPdfTool.SignatureTool;
+import com.bw.jPdfTool.SigningContext;
 import com.bw.jPdfTool.model.DocumentProxy;
+import com.bw.jPdfTool.model.LoadMode;
 import com.bw.jPdfTool.model.MergeOptions;
+import com.bw.jPdfTool.model.OutputOptions;
 import com.bw.jPdfTool.model.RenderQueue;
-import org.apache.pdfbox.Loader;
+import com.bw.jPdfTool.model.ReplacingFileOutputStream;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.multipdf.Splitter;
-import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tool to execute CLI commands.
@@ -29,15 +44,44 @@ public class CommandExecuter {
 
     protected final List<Path> files;
     protected DocumentProxy documentProxy;
+    protected LoadMode loadMode = LoadMode.AUTO;
+    protected OutputOptions outputOptions = new OutputOptions();
+    protected Path outputFile;
 
     public CommandExecuter(List<Path> files) {
         this.files = new ArrayList<>(files);
     }
 
     /**
-     * Loads all files.
+     * Sets how the files are read.
      */
-    public void loadDocuments(String password2Load, MergeOptions mo) {
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode == null ? LoadMode.AUTO : loadMode;
+    }
+
+    /**
+     * Sets how the output is optimized.
+     */
+    public void setOutputOptions(OutputOptions outputOptions) {
+        this.outputOptions = outputOptions == null ? new OutputOptions() : outputOptions;
+    }
+
+    /**
+     * Sets the output file (or the base name of split parts).
+     * Input files that may be replaced by the output are read from a temporary copy.
+     */
+    public void setOutputFile(Path outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Loads all files.<br>
+     * As with sequential loading, a file that can't be loaded (e.g. wrong password) is reported
+     * by the loader and the other files are still loaded.
+     *
+     * @throws IOException If loading failed unexpectedly or was interrupted.
+     */
+    public void loadDocuments(String password2Load, MergeOptions mo) throws IOException {
 
         if (documentProxy != null)
             documentProxy.close();
@@ -45,21 +89,80 @@ public class CommandExecuter {
         // Currently we simply need an instance bit don't actually render .
         RenderQueue renderQueue = new RenderQueue();
         documentProxy = new DocumentProxy(renderQueue);
+        documentProxy.setDeduplicateResources(outputOptions.deduplicate);
 
         if (mo == null)
             mo = new MergeOptions();
 
-        // TODO: We could use multiple threads here, but for now keep it simple.
         // TODO: Support setting MergeOptions from arguments.
+        List<CliPdfLoader> loaders = new ArrayList<>(files.size());
         for (Path p : files) {
-            CliPdfLoader lw = new CliPdfLoader(documentProxy, p, mo, password2Load);
-            lw.execute();
+            CliPdfLoader loader = new CliPdfLoader(documentProxy, p, mo, password2Load, loadMode);
+            loader.setReadFromCopy(mayBeReplaced(p));
+            loaders.add(loader);
+        }
+
+        if (loaders.size() == 1) {
+            loaders.get(0).execute();
+            return;
+        }
+
+        // Parse concurrently, but add the documents in order of the files, so that the result is deterministic.
+        // Only a limited number of files is parsed ahead to keep the memory bounded.
+        final int threads = Math.max(1, Math.min(loaders.size(), Runtime.getRuntime().availableProcessors()));
+        final int window = 2 * threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "PdfLoader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> parsed = new ArrayList<>(loaders.size());
+            for (int i = 0; i < loaders.size(); ++i) {
+                while (parsed.size() < loaders.size() && parsed.size() < i + window)
+                    parsed.add(executor.submit(loaders.get(parsed.size())::parse));
+                try {
+                    parsed.get(i).get();
+                } catch (ExecutionException e) {
+                    // Errors of the file are reported by the loader, only unexpected failures (e.g. out of memory) get here.
+                    documentProxy.close();
+                    if (e.getCause() instanceof Error error)
+                        throw error;
+                    throw new IOException(String.format("Failed to parse '%s'", files.get(i)), e.getCause());
+                }
+                loaders.get(i).finish();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            documentProxy.close();
+            throw new InterruptedIOException("Loading interrupted");
+        } finally {
+            executor.shutdownNow();
         }
     }
 
     /**
-     * Split the effective document.
-     * The document is closed during the call.
+     * Checks if an input file may be replaced by the output file or one of the split parts,
+     * which are named after the output file.
+     */
+    protected boolean mayBeReplaced(Path input) {
+        if (outputFile == null)
+            return false;
+        Path in = input.toAbsolutePath().normalize();
+        Path out = outputFile.toAbsolutePath().normalize();
+        if (in.equals(out))
+            return true;
+        String name = out.getFileName().toString();
+        int idx = name.lastIndexOf('.');
+        return Objects.equals(in.getParent(), out.getParent())
+                && in.getFileName().toString().startsWith(idx < 0 ? name : name.substring(0, idx));
+    }
+
+    /**
+     * Split the effective document.<br>
+     * The parts are created, protected, signed and written in parallel. Each worker creates one part
+     * at a time from its own copy of the document, so memory doesn't depend on the number of parts.
+     * See {@link #createPart(PDDocument, int, int)}.
      */
     public void split(int pagePerDocument,
                       String ownerPwd, String userPwd,
@@ -67,52 +170,117 @@ public class CommandExecuter {
                       Path baseFileName,
                       Path signatureKeyPath, char[] signatureKeyPwd) throws Exception {
 
-        if (documentProxy != null && documentProxy.getDocument() != null) {
-            PDDocument document = documentProxy.getCopy();
-            final boolean doSign = signatureKeyPath != null;
-            try {
-                String fprefix;
-                String fpostfix;
-                String fname = baseFileName.getFileName().toString();
-                int idx = fname.lastIndexOf('.');
-                if (idx < 0) {
-                    fprefix = baseFileName.toAbsolutePath().toString();
-                    fpostfix = ".pdf";
-                } else {
-                    fprefix = baseFileName.toAbsolutePath().getParent().resolve(fname.substring(0, idx)).toString();
-                    fpostfix = fname.substring(idx);
-                }
+        if (documentProxy != null && documentProxy.getDocument() != null && pagePerDocument > 0) {
+            String fname = baseFileName.getFileName().toString();
+            int idx = fname.lastIndexOf('.');
+            final String fprefix;
+            final String fpostfix;
+            if (idx < 0) {
+                fprefix = baseFileName.toAbsolutePath().toString();
+                fpostfix = ".pdf";
+            } else {
+                fprefix = baseFileName.toAbsolutePath().getParent().resolve(fname.substring(0, idx)).toString();
+                fpostfix = fname.substring(idx);
+            }
 
-                int fileCount = 0;
-                String alias = null;
-                SignatureTool createSignature = null;
+            final int pageCount = documentProxy.getDocument().getNumberOfPages();
+            final int partCount = (pageCount + pagePerDocument - 1) / pagePerDocument;
+            final int threads = Math.max(1, Math.min(partCount, Runtime.getRuntime().availableProcessors()));
+            final AtomicInteger nextPart = new AtomicInteger(0);
 
-                if (doSign) {
-                    createSignature = new SignatureTool();
-                    try (InputStream is = Files.newInputStream(signatureKeyPath)) {
-                        alias = createSignature.addKey(is, signatureKeyPwd);
-                    }
-                }
+            // Key material is loaded once and shared by all workers.
+            final SignatureTool createSignature = signatureKeyPath == null ? null
+                    : new SignatureTool(SigningContext.get(signatureKeyPath, signatureKeyPwd));
 
-                final PDDocument source = documentProxy.getCopy();
-                Splitter splitter = new Splitter();
-                splitter.setSplitAtPage(pagePerDocument);
-                List<PDDocument> splittedDocs = splitter.split(source);
-                for (PDDocument doc : splittedDocs) {
-                    String docFile = String.format("%s%03d%s", fprefix, ++fileCount, fpostfix);
-                    if (doSign) {
-                        saveDocument(doc, ownerPwd, userPwd, ap, encryptionKeyLength, Paths.get(docFile), createSignature, alias, signatureKeyPwd);
-                    } else {
-                        saveDocument(doc, ownerPwd, userPwd, ap, encryptionKeyLength, Paths.get(docFile), null, null, null);
+            List<PDDocument> sources = documentProxy.getCopies(threads);
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "PdfSplitter");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> workers = new ArrayList<>(threads);
+                for (PDDocument source : sources) {
+                    workers.add(executor.submit(() -> {
+                        int part;
+                        while ((part = nextPart.getAndIncrement()) < partCount) {
+                            PDDocument doc = createPart(source, part * pagePerDocument,
+                                    Math.min(pageCount, (part + 1) * pagePerDocument));
+                            String docFile = String.format("%s%03d%s", fprefix, part + 1, fpostfix);
+                            saveDocument(doc, ownerPwd, userPwd, ap, encryptionKeyLength, Paths.get(docFile),
+                                    createSignature);
+                            Log.info("Stored file '%s'", docFile);
+                        }
+                        return null;
+                    }));
+                }
+                Exception error = null;
+                for (Future<?> worker : workers) {
+                    try {
+                        worker.get();
+                    } catch (ExecutionException e) {
+                        if (error == null) {
+                            error = e.getCause() instanceof Exception ex ? ex : e;
+                            // Stop the other workers.
+                            nextPart.set(partCount);
+                        }
                     }
-                    Log.info("Stored file '%s'", docFile);
                 }
-                source.close();
+                if (error != null)
+                    throw error;
             } finally {
-                if (document != null)
-                    document.close();
+                executor.shutdownNow();
+                for (PDDocument source : sources)
+                    source.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a document with a range of pages, set up like the parts of {@link Splitter}.<br>
+     * The pages are taken by index: {@link Splitter} walks the page tree from the first page for each
+     * part, which makes splitting large documents into many parts quadratic.
+     * Links to other pages are removed, as {@link Splitter} does.
+     *
+     * @param source     The document to take the pages from.
+     * @param firstIndex The 0-based index of the first page.
+     * @param endIndex   The 0-based index after the last page.
+     * @return The new document. The pages share their resources with the source, which needs to stay open until
+     * the part is saved.
+     */
+    protected static PDDocument createPart(PDDocument source, int firstIndex, int endIndex) throws IOException {
+        PDDocument part = new PDDocument();
+        part.setVersion(source.getVersion());
+        PDDocumentInformation info = source.getDocumentInformation();
+        if (info != null) {
+            COSDictionary partInfo = new COSDictionary();
+            for (COSName key : info.getCOSObject().keySet()) {
+                COSBase value = info.getCOSObject().getDictionaryObject(key);
+                if (!(value instanceof COSDictionary))
+                    partInfo.setItem(key, value);
             }
+            part.setDocumentInformation(new PDDocumentInformation(partInfo));
         }
+        part.getDocumentCatalog().setViewerPreferences(source.getDocumentCatalog().getViewerPreferences());
+
+        for (int i = firstIndex; i < endIndex; ++i) {
+            PDPage page = source.getPage(i);
+            PDPage imported = part.importPage(page);
+            // Inherited resources
+            if (page.getResources() != null && !page.getCOSObject().containsKey(COSName.RESOURCES))
+                imported.setResources(page.getResources());
+            for (PDAnnotation annotation : imported.getAnnotations()) {
+                if (annotation instanceof PDAnnotationLink link) {
+                    PDDestination destination = link.getDestination();
+                    if (destination == null && link.getAction() instanceof PDActionGoTo goTo)
+                        destination = goTo.getDestination();
+                    if (destination instanceof PDPageDestination pageDestination)
+                        pageDestination.setPage(null);
+                }
+                annotation.setPage(null);
+            }
+        }
+        return part;
     }
 
     /**
@@ -125,20 +293,9 @@ public class CommandExecuter {
                      Path signatureKeyPath, char[] signatureKeyPwd
     ) throws Exception {
         if (documentProxy != null && documentProxy.getDocument() != null) {
-            PDDocument document = documentProxy.getCopy();
-            final boolean doSign = signatureKeyPath != null;
-            if (doSign) {
-                SignatureTool createSignature = new SignatureTool();
-
-                String alias;
-                try (InputStream is = Files.newInputStream(signatureKeyPath)) {
-                    alias = createSignature.addKey(is, signatureKeyPwd);
-                }
-                saveDocument(document, ownerPwd, userPwd, ap, encryptionKeyLength, file, createSignature, alias, signatureKeyPwd);
-
-            } else {
-                saveDocument(document, ownerPwd, userPwd, ap, encryptionKeyLength, file, null, null, null);
-            }
+            final SignatureTool createSignature = signatureKeyPath == null ? null
+                    : new SignatureTool(SigningContext.get(signatureKeyPath, signatureKeyPwd));
+            saveDocument(documentProxy.getCopy(), ownerPwd, userPwd, ap, encryptionKeyLength, file, createSignature);
         }
     }
 
@@ -146,7 +303,7 @@ public class CommandExecuter {
     protected void saveDocument(PDDocument document, String ownerPwd, String userPwd,
                                 AccessPermission ap, int encryptionKeyLength,
                                 Path file,
-                                SignatureTool createSignature, String keyAlias, char[] signatureKeyPwd) throws Exception {
+                                SignatureTool createSignature) throws Exception {
 
         try {
             final boolean doSign = createSignature != null;
@@ -159,19 +316,23 @@ public class CommandExecuter {
                 if (doSign) {
                     // For some reason the encryption breaks if we sign fresh protected document.
                     // If we reload it (in protected state) it works.
-                    ByteArrayOutputStream os = new ByteArrayOutputStream(5 * 1024 * 1024);
-                    document.save(os, CompressParameters.NO_COMPRESSION);
-                    document.close();
-                    document = Loader.loadPDF(os.toByteArray(), ownerPwd.isEmpty() ? userPwd : ownerPwd);
+                    // Spooled through a temporary file, so the document is not held twice in memory.
+                    document = LoadMode.reload(document, ownerPwd.isEmpty() ? userPwd : ownerPwd);
                 }
             }
 
-            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
-                if (doSign) {
-                    createSignature.addSignature(document, keyAlias, signatureKeyPwd);
-                    document.saveIncremental(os);
-                } else {
-                    document.save(os);
+            try (ReplacingFileOutputStream os = new ReplacingFileOutputStream(file)) {
+                try {
+                    if (doSign) {
+                        createSignature.addSignature(document);
+                        document.saveIncremental(os);
+                    } else {
+                        document.save(os, outputOptions.getCompressParameters());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Keep the existing file.
+                    os.discard();
+                    throw e;
                 }
             }
         } finally {
@@ -0,0 +1,107 @@
+package com.bw.jPdfTool.model;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content hash of COS objects, independent of object numbers and of the order of dictionary entries.
+ */
+final class CosDigest {
+
+    private CosDigest() {
+    }
+
+    static MessageDigest create() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void update(MessageDigest md, String value) {
+        md.update(value.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+    /**
+     * Hashes a COS object recursively.
+     * Back references to parents are skipped, they would pull in the whole document.
+     * The page rotation is skipped, the render cache applies it to the stored images.
+     *
+     * @param visited       Objects already hashed, with their index. Repeated objects are hashed by index.
+     * @param streamDigests Digests of the raw data of already hashed streams.
+     */
+    static void hash(MessageDigest md, COSBase base, Map<COSBase, Integer> visited,
+                     Map<COSStream, byte[]> streamDigests) throws IOException {
+        if (base instanceof COSObject obj)
+            base = obj.getObject();
+        if (base == null) {
+            update(md, "null");
+        } else if (base instanceof COSName name) {
+            update(md, "/" + name.getName());
+        } else if (base instanceof COSString str) {
+            update(md, "s");
+            md.update(str.getBytes());
+        } else if (base instanceof COSInteger i) {
+            update(md, "i" + i.longValue());
+        } else if (base instanceof COSFloat f) {
+            update(md, "f" + f.floatValue());
+        } else if (base instanceof COSBoolean b) {
+            update(md, "b" + b.getValue());
+        } else if (visited.containsKey(base)) {
+            update(md, "ref" + visited.get(base));
+        } else if (base instanceof COSArray array) {
+            visited.put(base, visited.size());
+            update(md, "[" + array.size());
+            for (COSBase item : array)
+                hash(md, item, visited, streamDigests);
+        } else if (base instanceof COSDictionary dict) {
+            visited.put(base, visited.size());
+            List<COSName> keys = new ArrayList<>(dict.keySet());
+            keys.sort(Comparator.comparing(COSName::getName));
+            update(md, "<<" + keys.size());
+            for (COSName key : keys) {
+                if (COSName.PARENT.equals(key) || COSName.P.equals(key) || COSName.ROTATE.equals(key))
+                    continue;
+                update(md, "/" + key.getName());
+                hash(md, dict.getItem(key), visited, streamDigests);
+            }
+            if (dict instanceof COSStream stream) {
+                byte[] digest = streamDigests.get(stream);
+                if (digest == null) {
+                    MessageDigest smd = create();
+                    try (InputStream in = stream.createRawInputStream()) {
+                        byte[] buffer = new byte[64 * 1024];
+                        int n;
+                        while ((n = in.read(buffer)) > 0)
+                            smd.update(buffer, 0, n);
+                    }
+                    digest = smd.digest();
+                    streamDigests.put(stream, digest);
+                }
+                md.update(digest);
+            }
+        } else {
+            update(md, base.getClass().getSimpleName());
+        }
+    }
+}
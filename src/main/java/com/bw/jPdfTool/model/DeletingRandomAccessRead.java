@@ -0,0 +1,69 @@
+package com.bw.jPdfTool.model;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+import java.io.IOException;
+
+/**
+ * Random access source that releases its {@link SpoolFile} on close.
+ */
+final class DeletingRandomAccessRead implements RandomAccessRead {
+
+    private final RandomAccessRead source;
+    private final SpoolFile spool;
+
+    DeletingRandomAccessRead(RandomAccessRead source, SpoolFile spool) {
+        this.source = source;
+        this.spool = spool;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return source.read();
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        return source.read(b, offset, length);
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        return source.getPosition();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        source.seek(position);
+    }
+
+    @Override
+    public long length() throws IOException {
+        return source.length();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return source.isClosed();
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        return source.isEOF();
+    }
+
+    @Override
+    public RandomAccessReadView createView(long startPosition, long streamLength) throws IOException {
+        return source.createView(startPosition, streamLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            spool.release();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.bw.jPdfTool.model;
+
+import com.bw.jPdfTool.Log;
+import com.bw.jPdfTool.Preferences;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache for rendered pages in the user cache directory.<br>
+ * The key is a hash of the page content, resources and boxes, the dpi and the rendering hints.
+ * The page rotation is not part of the key: images are stored unrotated and are rotated
+ * on load, so a rotated page is not rendered again.<br>
+ * If the size limit is exceeded, the least recently used files are deleted.
+ */
+public class DiskRenderCache {
+
+    /**
+     * Changes if the rendering changes in a way that makes existing files invalid.
+     */
+    private static final String FORMAT = "jPdfTool-render-2;aa;bicubic;quality;rgb";
+    private static final String SUFFIX = ".png";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong usedBytes = new AtomicLong(-1);
+
+    /**
+     * Creates a new cache.
+     *
+     * @param directory The directory for the cache files, created on demand.
+     * @param maxBytes  The maximal size of all files.
+     */
+    public DiskRenderCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the default directory for the cache files.
+     */
+    public static Path getDefaultDirectory() {
+        return Preferences.getCacheDirectory().resolve("render");
+    }
+
+    /**
+     * Calculates the key for a page.
+     *
+     * @param page          The page to render.
+     * @param dpi           The dpi to render with.
+     * @param streamDigests Digests of already hashed streams, reused for resources shared by pages.
+     * @return The key or null if the page can't be cached.
+     */
+    public static String getKey(PDPage page, int dpi, Map<COSStream, byte[]> streamDigests) throws IOException {
+        if (page.getRotation() % 90 != 0)
+            return null;
+        MessageDigest md = CosDigest.create();
+        CosDigest.update(md, FORMAT);
+        CosDigest.update(md, "dpi=" + dpi);
+        updateBox(md, page.getMediaBox());
+        updateBox(md, page.getCropBox());
+        Map<COSBase, Integer> visited = new IdentityHashMap<>();
+        // Resources may be inherited, so hash the effective ones.
+        PDResources resources = page.getResources();
+        if (resources != null)
+            CosDigest.hash(md, resources.getCOSObject(), visited, streamDigests);
+        CosDigest.hash(md, page.getCOSObject(), visited, streamDigests);
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /**
+     * Loads an image.
+     *
+     * @param key      The key from {@link #getKey(PDPage, int, Map)}.
+     * @param rotation The rotation of the page, the image is rotated accordingly.
+     * @return The image or null if not in cache.
+     */
+    public BufferedImage get(String key, int rotation) {
+        Path file = getFile(key);
+        if (!Files.isRegularFile(file))
+            return null;
+        try {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null)
+                return null;
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return rotate(image, rotation);
+        } catch (IOException e) {
+            Log.error("Failed to read cached page %s: %s", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores an image.
+     *
+     * @param key      The key from {@link #getKey(PDPage, int, Map)}.
+     * @param image    The image as rendered.
+     * @param rotation The rotation of the page the image was rendered with.
+     */
+    public void put(String key, BufferedImage image, int rotation) {
+        Path file = getFile(key);
+        if (Files.exists(file))
+            return;
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            if (usedBytes.get() < 0)
+                usedBytes.compareAndSet(-1, calculateUsedBytes());
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            ImageIO.write(rotate(image, 360 - rotation), "png", tmp.toFile());
+            long size = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+            if (usedBytes.addAndGet(size) > maxBytes)
+                cleanup();
+        } catch (IOException e) {
+            Log.error("Failed to write cached page %s: %s", file, e.getMessage());
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the size is below 80% of the limit.
+     */
+    protected synchronized void cleanup() throws IOException {
+        if (usedBytes.get() <= maxBytes)
+            return;
+        record Entry(Path file, long size, long lastModified) {
+        }
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                if (f.getFileName().toString().endsWith(SUFFIX)) {
+                    try {
+                        Entry e = new Entry(f, Files.size(f), Files.getLastModifiedTime(f).toMillis());
+                        entries.add(e);
+                        total += e.size;
+                    } catch (IOException ignored) {
+                        // Deleted by some other worker or process.
+                    }
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::lastModified));
+        final long target = maxBytes / 10 * 8;
+        int deleted = 0;
+        for (Entry e : entries) {
+            if (total <= target)
+                break;
+            if (Files.deleteIfExists(e.file))
+                ++deleted;
+            total -= e.size;
+        }
+        usedBytes.set(total);
+        Log.debug("Render disk cache: deleted %d files, %d MB left", deleted, total / (1024 * 1024));
+    }
+
+    private long calculateUsedBytes() throws IOException {
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                if (f.getFileName().toString().endsWith(SUFFIX))
+                    total += Files.size(f);
+            }
+        }
+        return total;
+    }
+
+    private Path getFile(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    /**
+     * Rotates an image clockwise by a multiple of 90 degree.
+     */
+    static BufferedImage rotate(BufferedImage image, int degree) {
+        degree = ((degree % 360) + 360) % 360;
+        if (degree == 0)
+            return image;
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final boolean swap = degree != 180;
+        BufferedImage rotated = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = rotated.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            switch (degree) {
+                case 90 -> g2.translate(h, 0);
+                case 180 -> g2.translate(w, h);
+                default -> g2.translate(0, w);
+            }
+            g2.rotate(Math.toRadians(degree));
+            g2.drawImage(image, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+        return rotated;
+    }
+
+    private static void updateBox(MessageDigest md, PDRectangle r) {
+        CosDigest.update(md, r == null ? "-" :
+                r.getLowerLeftX() + "," + r.getLowerLeftY() + "," + r.getUpperRightX() + "," + r.getUpperRightY());
+    }
+}
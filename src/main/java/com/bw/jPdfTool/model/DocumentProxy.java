@@ -2,7 +2,10 @@ package com.bw.jPdfTool.model;
 
 import com.bw.jPdfTool.Log;
 import com.bw.jPdfTool.Preferences;
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.io.IOUtils;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
@@ -15,14 +18,16 @@ import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
-import javax.swing.SwingUtilities;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -32,8 +37,24 @@ public class DocumentProxy {
 
     public final List<Page> pages = new ArrayList<>();
     private final List<DocumentConsumer> docConsumerList = new ArrayList<>();
-    private boolean closed = false;
+    private volatile boolean closed = false;
+    private static final COSName[] INHERITABLE_ATTRIBUTES = {
+            COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE
+    };
+
     private PDDocument document;
+    private boolean deduplicateResources = false;
+    /**
+     * Nesting depth of {@link #beginBatch()}.
+     */
+    private int batchDepth = 0;
+    /**
+     * Page order during a batch, the page tree is updated on commit.
+     */
+    private List<PDPage> batchPdPages;
+    private boolean batchOrderChanged = false;
+    private boolean batchRefirePages = false;
+    private ResourceDeduplicator deduplicator;
     private final RenderQueue renderQueue;
     private final List<DocumentProxy.PageConsumer> pageConsumerList = new ArrayList<>();
 
@@ -42,6 +63,36 @@ public class DocumentProxy {
 
     public String error;
 
+    /**
+     * Incremented each time the document content or structure is changed.
+     */
+    private volatile int version = 0;
+    private SpoolFile renderSnapshot;
+    private int renderSnapshotVersion = -1;
+
+    /**
+     * 0-based indices of the visible pages. Used to prioritize rendering.
+     */
+    private int visibleFirstIndex = 0;
+    private int visibleLastIndex = 0;
+    private final List<Page> visiblePages = new ArrayList<>();
+
+    /**
+     * Width in pixels the pages are shown with. 0 if unknown.
+     */
+    private int previewWidth = 0;
+
+    /**
+     * DPI used for previews as long as the preview width is not known.
+     */
+    public static final int DEFAULT_PREVIEW_DPI = 72;
+
+    /**
+     * Preview resolutions are rounded up to multiples of this step, so that the resolution
+     * (and the key in the disk render cache) doesn't change with each preview width.
+     */
+    public static final int PREVIEW_DPI_STEP = 12;
+
     public DocumentProxy(RenderQueue renderQueue) {
         this.renderQueue = renderQueue;
     }
@@ -83,9 +134,116 @@ public class DocumentProxy {
      * Set the effective document
      */
     public void setDocument(PDDocument document) {
+        if (this.document != document)
+            this.deduplicator = null;
         this.document = document;
     }
 
+    /**
+     * Sets if identical resources (fonts, images, forms, ...) of merged documents are shared,
+     * see {@link ResourceDeduplicator}. Each appended document is only compared with the resources
+     * seen before, so the effort grows with the appended pages, not with the size of the document.
+     */
+    public synchronized void setDeduplicateResources(boolean deduplicateResources) {
+        this.deduplicateResources = deduplicateResources;
+        if (deduplicateResources && document != null)
+            deduplicate(document.getPages());
+    }
+
+    public synchronized boolean isDeduplicateResources() {
+        return deduplicateResources;
+    }
+
+    private void deduplicate(Iterable<PDPage> pages) {
+        if (deduplicator == null)
+            deduplicator = new ResourceDeduplicator();
+        try {
+            int replaced = deduplicator.deduplicate(pages);
+            Log.debug("%d duplicate resources replaced", replaced);
+        } catch (IOException e) {
+            Log.error("Failed to deduplicate resources. %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Interleaves the appended pages with the original pages.<br>
+     * The final order is computed once and the page tree is rebuilt in one pass,
+     * single moves in the page tree would need to walk the tree for each page.
+     *
+     * @param oldPageCount The number of original pages, all following pages were appended.
+     * @param mo           The merge options.
+     */
+    private void zipperMerge(int oldPageCount, MergeOptions mo) {
+        List<PDPage> pdPages = getPagesFrom(this.getDocument(), 0);
+        final int pageCount = pdPages.size();
+        final int segmentLength = Math.max(1, mo.segmentLength);
+        final int gapLength = Math.max(0, mo.gapLength);
+
+        List<PDPage> orderedPdPages = new ArrayList<>(pageCount);
+        List<Page> orderedPages = new ArrayList<>(pageCount);
+        int original = 0;
+        int appended = oldPageCount;
+        // Original pages before the start page.
+        while (original < mo.startPageNb - 1) {
+            orderedPdPages.add(pdPages.get(original));
+            orderedPages.add(this.pages.get(original++));
+        }
+        while (appended < pageCount) {
+            for (int i = 0; i < segmentLength && appended < pageCount; ++i) {
+                orderedPdPages.add(pdPages.get(appended));
+                orderedPages.add(this.pages.get(appended++));
+            }
+            if (appended < pageCount) {
+                for (int i = 0; i < gapLength && original < oldPageCount; ++i) {
+                    orderedPdPages.add(pdPages.get(original));
+                    orderedPages.add(this.pages.get(original++));
+                }
+            }
+        }
+        while (original < oldPageCount) {
+            orderedPdPages.add(pdPages.get(original));
+            orderedPages.add(this.pages.get(original++));
+        }
+
+        setPageOrder(orderedPdPages);
+        // Same order for the pages, so that they keep their images.
+        this.pages.clear();
+        this.pages.addAll(orderedPages);
+    }
+
+    /**
+     * Replaces the page tree by a flat tree with the pages in the given order.
+     * Attributes the pages inherited from intermediate nodes are copied to the pages.
+     */
+    private void setPageOrder(List<PDPage> pdPages) {
+        COSDictionary root = this.getDocument().getPages().getCOSObject();
+        COSArray kids = new COSArray();
+        for (PDPage pdPage : pdPages) {
+            COSDictionary dict = pdPage.getCOSObject();
+            for (COSName key : INHERITABLE_ATTRIBUTES) {
+                if (!dict.containsKey(key)) {
+                    COSBase value = PDPageTree.getInheritableAttribute(dict, key);
+                    if (value != null)
+                        dict.setItem(key, value);
+                }
+            }
+            dict.setItem(COSName.PARENT, root);
+            kids.add(dict);
+        }
+        root.setItem(COSName.KIDS, kids);
+        root.setInt(COSName.COUNT, pdPages.size());
+    }
+
+    private static List<PDPage> getPagesFrom(PDDocument document, int startIndex) {
+        List<PDPage> pages = new ArrayList<>();
+        int index = 0;
+        for (PDPage page : document.getPages()) {
+            if (index++ >= startIndex)
+                pages.add(page);
+        }
+        return pages;
+    }
+
 
     /**
      * Adds a Page consumer.<br>
@@ -102,7 +260,7 @@ public class DocumentProxy {
         }
         synchronized (this) {
             for (Page p : pages)
-                if (p.image != null)
+                if (p.hasImage())
                     consumer.pageRendered(p);
         }
     }
@@ -113,38 +271,31 @@ public class DocumentProxy {
         }
     }
 
-    private boolean notificationTriggered = false;
-    private final List<Page> renderedPages = new LinkedList<>();
-
     /**
      * Called by renderer if a page was finished.<br>
-     * Called from worker threads.
+     * Called from worker threads. The consumers are called with the next update of the {@link EventDispatcher}.
      */
     public void firePageRendered(Page page) {
         if (closed || page == null)
             return;
-        synchronized (renderedPages) {
-            renderedPages.add(page);
-            if (!notificationTriggered) {
-                notificationTriggered = true;
-                SwingUtilities.invokeLater(() -> {
-                    List<Page> pages;
-                    synchronized (renderedPages) {
-                        notificationTriggered = false;
-                        pages = new ArrayList<>(renderedPages);
-                        renderedPages.clear();
-                    }
-                    List<PageConsumer> l;
-                    synchronized (pageConsumerList) {
-                        l = new ArrayList<>(pageConsumerList);
-                    }
-                    Log.debug("%d pages finished", pages.size());
-                    for (Page p : pages) {
-                        for (var pc : l) {
-                            pc.pageRendered(p);
-                        }
-                    }
-                });
+        EventDispatcher.getInstance().pageRendered(page);
+    }
+
+    /**
+     * Reports the pages rendered since the last update to the page consumers.<br>
+     * Called by the {@link EventDispatcher} from the event dispatch thread.
+     */
+    void dispatchPagesRendered(Collection<Page> pages) {
+        if (closed)
+            return;
+        List<PageConsumer> l;
+        synchronized (pageConsumerList) {
+            l = new ArrayList<>(pageConsumerList);
+        }
+        Log.debug("%d pages finished", pages.size());
+        for (Page p : pages) {
+            for (var pc : l) {
+                pc.pageRendered(p);
             }
         }
     }
@@ -194,7 +345,7 @@ public class DocumentProxy {
             toFire = new ArrayList<>(pages);
         }
         for (Page p : toFire) {
-            if (p.image != null)
+            if (p.hasImage())
                 firePageRendered(p);
         }
     }
@@ -205,6 +356,8 @@ public class DocumentProxy {
      */
     public synchronized void close() {
         closed = true;
+        getImageCache().removeAll(pages);
+        releaseRenderSnapshot();
         docConsumerList.clear();
         pageConsumerList.clear();
         if (document != null) {
@@ -225,7 +378,7 @@ public class DocumentProxy {
     }
 
     /**
-     * Moves a page by offset. The ensure no cache issues, the complete document is re-rendered.
+     * Moves a page by offset. The pages keep their rendered images, only the page numbers change.
      *
      * @param pageNb The 1-based page number.
      * @param offset The offset
@@ -237,33 +390,41 @@ public class DocumentProxy {
             throw new IllegalArgumentException("Page " + pageNb + " is out of range");
         }
 
-        PDPageTree tree = document.getDocumentCatalog().getPages();
         final int pageIndex = pageNb - 1;
         final int targetPrevPageIndex = (offset < 0) ? (pageIndex + offset - 1) : (pageIndex + offset);
 
         if (targetPrevPageIndex != pageIndex) {
-            if (targetPrevPageIndex >= 0) {
-                if (targetPrevPageIndex < pageCount) {
-                    PDPage pdPage = tree.get(pageIndex);
-                    PDPage prevPage = tree.get(targetPrevPageIndex);
-                    tree.remove(pageIndex);
-                    tree.insertAfter(pdPage, prevPage);
+            synchronized (this) {
+                // Index after removal of the page.
+                final int targetIndex;
+                if (targetPrevPageIndex >= 0) {
+                    if (targetPrevPageIndex >= pageCount)
+                        return;
+                    targetIndex = targetPrevPageIndex < pageIndex ? targetPrevPageIndex + 1 : targetPrevPageIndex;
+                } else if (pageIndex > 0) {
+                    targetIndex = 0;
                 } else
                     return;
-            } else if (pageIndex > 0) {
-                PDPage pdPage = tree.get(pageIndex);
-                PDPage nextPage = tree.get(0);
-                tree.remove(pageIndex);
-                tree.insertBefore(pdPage, nextPage);
-            } else
-                return;
 
-            synchronized (this) {
-                pages.clear();
-                for (int i = 0; i < pageCount; ++i) {
-                    Page page = new Page(DocumentProxy.this, i + 1, pageCount);
-                    pages.add(page);
+                if (batchPdPages != null) {
+                    batchPdPages.add(targetIndex, batchPdPages.remove(pageIndex));
+                    batchOrderChanged = true;
+                } else {
+                    PDPageTree tree = document.getDocumentCatalog().getPages();
+                    PDPage pdPage = tree.get(pageIndex);
+                    if (targetIndex > 0) {
+                        PDPage prevPage = tree.get(targetPrevPageIndex);
+                        tree.remove(pageIndex);
+                        tree.insertAfter(pdPage, prevPage);
+                    } else {
+                        PDPage nextPage = tree.get(0);
+                        tree.remove(pageIndex);
+                        tree.insertBefore(pdPage, nextPage);
+                    }
                 }
+                pages.add(targetIndex, pages.remove(pageIndex));
+                updatePageNumbers();
+                documentChanged();
             }
             refirePages();
         }
@@ -278,9 +439,9 @@ public class DocumentProxy {
     public int getPageRotation(int pageNb) {
         ensuredDocument();
 
-        if (document.getNumberOfPages() >= pageNb) {
+        if (getPdPageCount() >= pageNb) {
             int pageIndex = pageNb - 1;
-            PDPage pd = document.getPage(pageIndex);
+            PDPage pd = getPdPage(pageIndex);
             return pd.getRotation();
         } else
             return 0;
@@ -289,56 +450,72 @@ public class DocumentProxy {
     public void rotatePage(int pageNb, int degree) {
         ensuredDocument();
 
-        if (document.getNumberOfPages() >= pageNb) {
+        if (getPdPageCount() >= pageNb) {
             int pageIndex = pageNb - 1;
 
-            Page p = pages.get(pageIndex);
-            p.image = null;
-            p.scale = 0;
-            PDPage pd = document.getPage(pageIndex);
-            pd.setRotation(pd.getRotation() + degree);
+            synchronized (this) {
+                Page p = pages.get(pageIndex);
+                ++p.contentVersion;
+                p.setImage(null);
+                p.scale = 0;
+                PDPage pd = getPdPage(pageIndex);
+                pd.setRotation(pd.getRotation() + degree);
+                p.setGeometry(pd);
+                documentChanged();
+            }
             refirePages();
         }
     }
 
     public void renderPageToImage(int pageNb) {
         ensuredDocument();
+        // The renderer needs the current order in the page tree.
+        applyBatchOrder();
         if (document.getNumberOfPages() >= pageNb) {
 
             PDFRenderer pdfRenderer = new PDFRenderer(document);
             int pageIndex = pageNb - 1;
 
-            try {
+            // The document is not thread safe, render workers may create a snapshot meanwhile.
+            synchronized (this) {
+                try {
 
-                final PDPage oldPage = document.getPage(pageIndex);
+                    final PDPage oldPage = document.getPage(pageIndex);
 
-                int rotation = oldPage.getRotation();
-                oldPage.setRotation(0);
+                    int rotation = oldPage.getRotation();
+                    oldPage.setRotation(0);
 
-                PDRectangle mediaBox = oldPage.getMediaBox();
-                PDPage newPage = new PDPage(mediaBox);
+                    PDRectangle mediaBox = oldPage.getMediaBox();
+                    PDPage newPage = new PDPage(mediaBox);
 
-                int dpi = Preferences.getInstance().getDpi();
+                    int dpi = Preferences.getInstance().getDpi();
 
-                BufferedImage bim = pdfRenderer.renderImageWithDPI(pageIndex, dpi);
-                PDImageXObject pdImage = LosslessFactory.createFromImage(document, bim);
+                    BufferedImage bim = pdfRenderer.renderImageWithDPI(pageIndex, dpi);
+                    PDImageXObject pdImage = LosslessFactory.createFromImage(document, bim);
 
-                try (PDPageContentStream contentStream = new PDPageContentStream(document, newPage)) {
-                    contentStream.drawImage(pdImage, 0, 0, mediaBox.getWidth(), mediaBox.getHeight());
+                    try (PDPageContentStream contentStream = new PDPageContentStream(document, newPage)) {
+                        contentStream.drawImage(pdImage, 0, 0, mediaBox.getWidth(), mediaBox.getHeight());
+                    }
+                    newPage.setRotation(rotation);
+
+                    var pageTree = document.getPages();
+                    pageTree.insertAfter(newPage, oldPage);
+                    pageTree.remove(oldPage);
+                    if (batchPdPages != null)
+                        batchPdPages.set(pageIndex, newPage);
+
+                    // should visibly the same, but to ensure WYSIWYG, force to re-render the page
+                    Page page = pages.get(pageIndex);
+                    ++page.contentVersion;
+                    page.setImage(null);
+
+                    documentChanged();
+                } catch (Exception e) {
+                    Log.error("Failed to render page to image: %s", e.getMessage());
+                    return;
                 }
-                newPage.setRotation(rotation);
-
-                var pageTree = document.getPages();
-                pageTree.insertAfter(newPage, oldPage);
-                pageTree.remove(oldPage);
-
-                // should visibly the same, but to ensure WYSIWYG, force to re-render the page
-                pages.get(pageIndex).image = null;
-
-                refirePages();
-            } catch (Exception e) {
-
             }
+            refirePages();
         }
     }
 
@@ -346,24 +523,122 @@ public class DocumentProxy {
 
         ensuredDocument();
 
-        if (document.getNumberOfPages() >= pageNb) {
+        if (getPdPageCount() >= pageNb) {
 
             int pageIndex = pageNb - 1;
 
-            // 0-based index!
-            document.removePage(pageIndex);
-            pages.remove(pageIndex);
-            int pageCount = pages.size();
-            for (int i = 0; i < pageCount; ++i) {
-                Page p = pages.get(i);
-                p.pageNb = i + 1;
-                p.pageCount = pageCount;
+            synchronized (this) {
+                if (batchPdPages != null) {
+                    batchPdPages.remove(pageIndex);
+                    batchOrderChanged = true;
+                } else {
+                    // 0-based index!
+                    document.removePage(pageIndex);
+                }
+                Page removed = pages.remove(pageIndex);
+                ++removed.contentVersion;
+                getImageCache().remove(removed);
+                updatePageNumbers();
+                documentChanged();
             }
             refirePages();
         }
     }
 
+    /**
+     * Updates page number and count of all pages after pages were moved, removed or added.
+     */
+    private synchronized void updatePageNumbers() {
+        final int pageCount = pages.size();
+        for (int i = 0; i < pageCount; ++i) {
+            Page p = pages.get(i);
+            p.pageNb = i + 1;
+            p.pageCount = pageCount;
+        }
+    }
+
+    /**
+     * Creates the pages for a loaded document, with size and rotation but without rendering anything.
+     * Page numbers are set by {@link #updatePageNumbers()}.
+     *
+     * @param document The loaded document, before it is merged.
+     */
+    private List<Page> createPages(PDDocument document) {
+        List<Page> loadedPages = new ArrayList<>(document.getNumberOfPages());
+        for (PDPage pdPage : document.getPages()) {
+            Page page = new Page(this, loadedPages.size() + 1, 0);
+            page.setGeometry(pdPage);
+            loadedPages.add(page);
+        }
+        return loadedPages;
+    }
+
+    /**
+     * Starts a batch of page operations ({@link #movePage(int, int)}, {@link #rotatePage(int, int)}, ...).<br>
+     * Until {@link #commitBatch()} the page tree of the document is not changed,
+     * no pages are rendered and listeners are not notified.
+     * Batches can be nested, only the outermost commit applies the changes.
+     */
+    public synchronized void beginBatch() {
+        ensuredDocument();
+        if (batchDepth++ == 0) {
+            batchPdPages = getPagesFrom(document, 0);
+            batchOrderChanged = false;
+            batchRefirePages = false;
+            // Renderings that are running now show the old order.
+            documentChanged();
+        }
+    }
+
+    /**
+     * Finishes a batch started with {@link #beginBatch()}.
+     * The page tree is rebuilt once and listeners are notified once.
+     */
+    public void commitBatch() {
+        final boolean refire;
+        synchronized (this) {
+            if (batchDepth == 0)
+                throw new IllegalStateException("No batch started");
+            if (--batchDepth > 0)
+                return;
+            if (batchOrderChanged && document != null)
+                setPageOrder(batchPdPages);
+            batchPdPages = null;
+            documentChanged();
+            refire = batchRefirePages;
+        }
+        if (refire)
+            refirePages();
+        else if (needsRendering())
+            // Rendering was paused during the batch.
+            renderQueue.addDocument(this);
+    }
+
+    /**
+     * Writes the page order of a running batch to the page tree, the batch stays open.
+     */
+    private synchronized void applyBatchOrder() {
+        if (batchPdPages != null && batchOrderChanged) {
+            setPageOrder(batchPdPages);
+            batchOrderChanged = false;
+        }
+    }
+
+    private synchronized int getPdPageCount() {
+        return batchPdPages != null ? batchPdPages.size() : document.getNumberOfPages();
+    }
+
+    private synchronized PDPage getPdPage(int pageIndex) {
+        return batchPdPages != null ? batchPdPages.get(pageIndex) : document.getPage(pageIndex);
+    }
+
     private void refirePages() {
+        synchronized (this) {
+            if (batchDepth > 0) {
+                batchRefirePages = true;
+                return;
+            }
+        }
         fireDocumentLoaded();
         boolean imageMissing = false;
         List<Page> pagesToFire;
@@ -371,7 +646,7 @@ public class DocumentProxy {
             pagesToFire = new ArrayList<>(pages);
         }
         for (Page p : pagesToFire) {
-            if (p.image == null) {
+            if (!p.hasImage()) {
                 imageMissing = true;
                 break;
             }
@@ -409,11 +684,262 @@ public class DocumentProxy {
         return pages.size();
     }
 
+    /**
+     * Get the current version of the document.
+     * Incremented each time the document content or structure is changed.<br>
+     * Not synchronized, render workers check the version while they draw.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Marks the document as changed. Views of older versions get invalid.
+     */
+    protected synchronized void documentChanged() {
+        ++version;
+    }
+
+    /**
+     * Sets the range of currently visible pages.<br>
+     * Visible pages are rendered first, followed by their neighbours.
+     * The more distant a page is from the visible range, the later it is rendered.
+     * The images of visible pages are kept in the image cache, even if the budget is exceeded.
+     *
+     * @param firstPageNb The 1-based number of the first visible page.
+     * @param lastPageNb  The 1-based number of the last visible page.
+     */
+    public synchronized void setVisiblePages(int firstPageNb, int lastPageNb) {
+        visibleFirstIndex = Math.max(0, firstPageNb - 1);
+        visibleLastIndex = Math.max(visibleFirstIndex, lastPageNb - 1);
+
+        for (Page p : visiblePages)
+            p.visible = false;
+        visiblePages.clear();
+        if (!pages.isEmpty() && visibleFirstIndex < pages.size()) {
+            visiblePages.addAll(pages.subList(visibleFirstIndex, Math.min(visibleLastIndex + 1, pages.size())));
+            for (Page p : visiblePages)
+                p.visible = true;
+        }
+    }
+
+    /**
+     * Claims the next page that needs to be rendered.<br>
+     * Called from render workers. The page is marked as "rendering" until
+     * {@link #pageRenderFinished(Page)} is called, so other workers will skip it.<br>
+     * Pages are claimed by distance to the visible range (see {@link #setVisiblePages(int, int)}).
+     *
+     * @return The page or null if there is nothing to do.
+     */
+    public synchronized Page claimPageToRender() {
+        if (!closed && batchDepth == 0) {
+            final int pageCount = pages.size();
+            if (pageCount == 0)
+                return null;
+            final int first = Math.min(visibleFirstIndex, pageCount - 1);
+            final int last = Math.min(visibleLastIndex, pageCount - 1);
+
+            for (int i = first; i <= last; ++i) {
+                if (claimPage(i))
+                    return pages.get(i);
+            }
+            // Walk outwards, pages below the visible range first.
+            for (int d = 1; (first - d) >= 0 || (last + d) < pageCount; ++d) {
+                if ((last + d) < pageCount && claimPage(last + d))
+                    return pages.get(last + d);
+                if ((first - d) >= 0 && claimPage(first - d))
+                    return pages.get(first - d);
+            }
+        }
+        return null;
+    }
+
+    private boolean claimPage(int pageIndex) {
+        Page p = pages.get(pageIndex);
+        if (needsRendering(p)) {
+            p.rendering = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a page needs to be (re-)rendered.
+     * Pages that are rendered with a lower resolution than needed are also rendered again.
+     */
+    protected synchronized boolean needsRendering(Page p) {
+        if (p.error != null || p.rendering)
+            return false;
+        if (!p.hasImage())
+            return !p.evicted || p.imageRequested;
+        int targetDpi = getTargetDpi(p);
+        // Previews are only re-rendered if the difference is significant.
+        return p.fullResolution ? p.dpi < targetDpi : p.dpi < (targetDpi * 0.9f);
+    }
+
+    /**
+     * Calculates the resolution to render a page with.<br>
+     * Pages are rendered in two tiers. First all pages are rendered with the
+     * resolution needed to show them with the preview width. Only pages with
+     * {@link Page#fullResolution} set are rendered with the dpi from preferences.<br>
+     * The preview resolution doesn't depend on the rotation: it is calculated for the smaller side
+     * of the page, which fits the preview width in any orientation. So a rotated page is
+     * found in the disk render cache.
+     *
+     * @param page The page.
+     * @return The dpi.
+     */
+    public synchronized int getTargetDpi(Page page) {
+        final int fullDpi = renderQueue.getDpi();
+        if (page.fullResolution)
+            return fullDpi;
+        final float sidePts = Math.min(page.width, page.height);
+        int previewDpi;
+        if (previewWidth <= 0 || sidePts <= 0)
+            previewDpi = DEFAULT_PREVIEW_DPI;
+        else
+            previewDpi = (int) Math.ceil(previewWidth * 72f / sidePts / PREVIEW_DPI_STEP) * PREVIEW_DPI_STEP;
+        return Math.min(fullDpi, previewDpi);
+    }
+
+    /**
+     * Sets the width in pixels the pages are shown with.
+     * Pages are re-rendered if the width grows significantly.
+     *
+     * @param previewWidth The width in (device) pixels.
+     */
+    public void setPreviewWidth(int previewWidth) {
+        synchronized (this) {
+            if (this.previewWidth == previewWidth)
+                return;
+            this.previewWidth = previewWidth;
+        }
+        if (needsRendering())
+            renderQueue.addDocument(this);
+    }
+
+    /**
+     * Get the cache that holds the rendered page images.
+     */
+    public PageImageCache getImageCache() {
+        return renderQueue.getImageCache();
+    }
+
+    /**
+     * Requests the image of an evicted page. The page is rendered again in background.
+     *
+     * @param page The page.
+     */
+    public void requestImage(Page page) {
+        boolean render;
+        synchronized (this) {
+            page.imageRequested = true;
+            render = needsRendering(page);
+        }
+        if (render)
+            renderQueue.addDocument(this);
+    }
+
+    /**
+     * Requests rendering with full dpi for a page, e.g. if it is zoomed or exported.
+     *
+     * @param page The page.
+     */
+    public void requestFullResolution(Page page) {
+        if (page != null && !page.fullResolution) {
+            synchronized (this) {
+                page.fullResolution = true;
+            }
+            if (needsRendering(page))
+                renderQueue.addDocument(this);
+        }
+    }
+
+    /**
+     * Releases a page claimed by {@link #claimPageToRender()}.
+     */
+    public synchronized void pageRenderFinished(Page page) {
+        page.rendering = false;
+    }
+
+    /**
+     * Creates a new private view of the current document version for a render worker.
+     * All views of the same version are loaded from one snapshot in a temporary file.
+     *
+     * @throws IOException If the snapshot could not be created.
+     */
+    RenderView createRenderView() throws IOException {
+        SpoolFile snapshot;
+        int snapshotVersion;
+        // The document is not thread safe, edits have to wait until the snapshot is written.
+        synchronized (this) {
+            ensuredDocument();
+            if (renderSnapshot == null || renderSnapshotVersion != version) {
+                releaseRenderSnapshot();
+                // The proxy holds one reference, each view another one.
+                renderSnapshot = new SpoolFile(saveToTempFile(), 1);
+                renderSnapshotVersion = version;
+            }
+            snapshot = renderSnapshot;
+            snapshotVersion = renderSnapshotVersion;
+            snapshot.acquire();
+        }
+        // Parsing doesn't need the lock, the snapshot is not changed anymore.
+        return new RenderView(snapshotVersion, LoadMode.FILE.load(snapshot, null));
+    }
+
+    /**
+     * Creates the task to render a claimed page from a view.
+     *
+     * @return The task or null if the view is outdated or the page was removed.
+     */
+    synchronized RenderTask createRenderTask(Page page, RenderView view) {
+        final int pageIndex = page.pageNb - 1;
+        if (view.version != version || pageIndex < 0 || pageIndex >= pages.size() || pages.get(pageIndex) != page)
+            return null;
+        return new RenderTask(this, page, view, pageIndex);
+    }
+
+    /**
+     * Releases the render snapshot. Called by workers if all pages are rendered.
+     */
+    synchronized void releaseRenderSnapshot() {
+        if (renderSnapshot != null)
+            renderSnapshot.release();
+        renderSnapshot = null;
+        renderSnapshotVersion = -1;
+    }
+
+    /**
+     * Saves the document without security to a temporary file.<br>
+     * The document itself keeps its security settings.
+     *
+     * @return The file, to be deleted by the caller.
+     */
+    private synchronized Path saveToTempFile() throws IOException {
+        final boolean removeSecurity = document.isAllSecurityToBeRemoved();
+        // Removed from the trailer by the writer if security is removed.
+        final COSBase encrypt = document.getDocument().getTrailer().getItem(COSName.ENCRYPT);
+        Path file = Files.createTempFile("jPdfTool", ".pdf");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            document.setAllSecurityToBeRemoved(true);
+            document.save(os, CompressParameters.NO_COMPRESSION);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        } finally {
+            document.setAllSecurityToBeRemoved(removeSecurity);
+            if (encrypt != null)
+                document.getDocument().getTrailer().setItem(COSName.ENCRYPT, encrypt);
+        }
+        return file;
+    }
+
     public synchronized boolean needsRendering() {
         // Closed documents don't have pages to render!
         if (!closed) {
             for (Page p : pages) {
-                if (p.image == null && p.error == null)
+                if (needsRendering(p))
                     return true;
             }
         }
@@ -427,16 +953,23 @@ public class DocumentProxy {
             {
                 if (document != null) {
                     int pageCount;
+                    applyBatchOrder();
+                    // Only the pages of this document are read, before the document is merged and closed.
+                    final List<Page> loadedPages = createPages(document);
                     if (this.getDocument() == null) {
                         this.setDocument(document);
                         this.pages.clear();
                         pageCount = this.getDocument().getNumberOfPages();
+                        if (deduplicateResources)
+                            deduplicate(document.getPages());
                     } else {
                         // Append pages
                         try {
                             oldPageCount = this.getDocument().getNumberOfPages();
                             PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
                             pdfMergerUtility.appendDocument(this.getDocument(), document);
+                            if (deduplicateResources)
+                                deduplicate(getPagesFrom(this.getDocument(), oldPageCount));
                         } catch (Exception e) {
                             Log.error("Failed to merge. %s", e.getMessage());
                             oldPageCount = -1;
@@ -445,43 +978,22 @@ public class DocumentProxy {
                         }
                         pageCount = this.pages.size() + document.getNumberOfPages();
                     }
-                    // zipper merge if requested
-                    if (mo.startPageNb > 0 && mo.startPageNb < oldPageCount) {
-                        int targetPageIndex = mo.startPageNb - 1;
-                        int segmentCount = 0;
-                        int pageToMoveIndex = oldPageCount;
-                        PDPageTree tree = this.getDocument().getDocumentCatalog().getPages();
-
-                        while (pageToMoveIndex < pageCount) {
-
-                            PDPage pdPage = tree.get(pageToMoveIndex);
-                            if (targetPageIndex > 0) {
-                                PDPage prevPage = tree.get(targetPageIndex - 1);
-                                tree.remove(pageToMoveIndex);
-                                tree.insertAfter(pdPage, prevPage);
-                            } else {
-                                PDPage nextPage = tree.get(targetPageIndex);
-                                tree.remove(pageToMoveIndex);
-                                tree.insertBefore(pdPage, nextPage);
-                            }
-
-                            ++pageToMoveIndex;
-                            ++segmentCount;
-
-                            if (segmentCount >= mo.segmentLength && mo.gapLength > 0) {
-                                targetPageIndex += mo.gapLength;
-                            }
-                            ++targetPageIndex;
-
-                        }
-                        this.pages.clear();
-                    }
 
+                    int loadedIndex = 0;
                     while (this.pages.size() < pageCount) {
-                        Page page = new Page(this, this.pages.size() + 1, pageCount);
+                        Page page = loadedIndex < loadedPages.size() ? loadedPages.get(loadedIndex++)
+                                : new Page(this, this.pages.size() + 1, pageCount);
                         this.pages.add(page);
                     }
+                    // zipper merge if requested
+                    if (mo.startPageNb > 0 && mo.startPageNb < oldPageCount) {
+                        zipperMerge(oldPageCount, mo);
+                    }
+                    if (batchPdPages != null)
+                        batchPdPages = getPagesFrom(this.getDocument(), 0);
+                    updatePageNumbers();
 
+                    documentChanged();
                     // Tell anyone, that a new document is loaded.
                     fireLoaded = true;
                 } else if (this.error != null) {
@@ -518,18 +1030,44 @@ public class DocumentProxy {
     }
 
     /**
-     * Brute force copy. Writes to byte array and load it.
+     * Creates an independent copy of the document, e.g. to protect and save it.<br>
+     * The document is written to a temporary file that is loaded again ({@link LoadMode#AUTO}),
+     * so large documents are not held twice in memory. The file is deleted if the copy is closed.
      *
+     * @return The copy or null if no document is loaded.
      * @throws IOException If some write operation failed.
      */
     public PDDocument getCopy() throws IOException {
-        if (document != null) {
-            document.setAllSecurityToBeRemoved(true);
-            ByteArrayOutputStream os = new ByteArrayOutputStream(5 * 1024 * 1024);
-            document.save(os, CompressParameters.NO_COMPRESSION);
-            return Loader.loadPDF(os.toByteArray());
-        } else
-            return null;
+        List<PDDocument> copies = getCopies(1);
+        return copies.isEmpty() ? null : copies.get(0);
+    }
+
+    /**
+     * Creates a number of independent copies of the document, e.g. for workers that process parts in parallel.
+     * All copies are loaded from the same temporary file, see {@link #getCopy()}.
+     *
+     * @param count The number of copies.
+     * @return The copies, empty if no document is loaded.
+     * @throws IOException If some write operation failed.
+     */
+    public List<PDDocument> getCopies(int count) throws IOException {
+        List<PDDocument> copies = new ArrayList<>(count);
+        applyBatchOrder();
+        if (document != null && count > 0) {
+            SpoolFile spool = new SpoolFile(saveToTempFile(), count);
+            try {
+                while (copies.size() < count)
+                    copies.add(LoadMode.AUTO.load(spool, null));
+            } catch (IOException | RuntimeException e) {
+                // The failed load released its reference, release the ones of the copies not created.
+                for (int i = copies.size() + 1; i < count; ++i)
+                    spool.release();
+                for (PDDocument copy : copies)
+                    IOUtils.closeQuietly(copy);
+                throw e;
+            }
+        }
+        return copies;
     }
 
 }
@@ -0,0 +1,92 @@
+package com.bw.jPdfTool.model;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers UI updates on the event dispatch thread, at most {@link #MAX_UPDATES_PER_SECOND} times per second.<br>
+ * Events from all documents that arrive during one frame are merged: a page rendered several times is reported once
+ * and tasks (e.g. layout updates) are executed after the pages of the frame.
+ * Events can be posted from any thread without locking.
+ */
+public final class EventDispatcher {
+
+    public static final int MAX_UPDATES_PER_SECOND = 30;
+
+    private static final EventDispatcher instance = new EventDispatcher(TimeUnit.SECONDS.toNanos(1) / MAX_UPDATES_PER_SECOND);
+
+    private final long frameNanos;
+    private final ConcurrentLinkedQueue<Page> renderedPages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile long lastDispatch = System.nanoTime();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "EventDispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private EventDispatcher(long frameNanos) {
+        this.frameNanos = frameNanos;
+    }
+
+    public static EventDispatcher getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reports a rendered page to the page consumers of its document with the next update.
+     */
+    public void pageRendered(Page page) {
+        renderedPages.add(page);
+        schedule();
+    }
+
+    /**
+     * Executes a task with the next update, after the rendered pages are reported.
+     */
+    public void post(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            long delay = lastDispatch + frameNanos - System.nanoTime();
+            if (delay <= 0)
+                SwingUtilities.invokeLater(this::dispatch);
+            else
+                scheduler.schedule(() -> SwingUtilities.invokeLater(this::dispatch), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void dispatch() {
+        // Events posted from here on trigger the next update.
+        scheduled.set(false);
+        lastDispatch = System.nanoTime();
+
+        Map<DocumentProxy, Set<Page>> pagesByDocument = new LinkedHashMap<>();
+        Page page;
+        while ((page = renderedPages.poll()) != null)
+            pagesByDocument.computeIfAbsent(page.document, d -> new LinkedHashSet<>()).add(page);
+        pagesByDocument.forEach(DocumentProxy::dispatchPagesRendered);
+
+        // Tasks posted by the page consumers are executed in this update, but not tasks posted by tasks.
+        List<Runnable> toRun = new ArrayList<>();
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            toRun.add(task);
+        for (Runnable r : toRun)
+            r.run();
+    }
+}
@@ -0,0 +1,168 @@
+package com.bw.jPdfTool.model;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessReadMemoryMappedFile;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * How PDF files are read.<br>
+ * With {@link #FILE} and {@link #MAPPED} the file stays open as long as the document is used
+ * and new streams are cached in temporary files, so large inputs load with bounded heap.
+ */
+public enum LoadMode {
+
+    /**
+     * Read the complete file into memory before parsing.
+     */
+    MEMORY,
+    /**
+     * Read the file on demand with a buffered random access file.
+     */
+    FILE,
+    /**
+     * Read the file on demand from a memory mapped file. Limited to files smaller than 2 GB.
+     */
+    MAPPED,
+    /**
+     * {@link #MEMORY} for small files, {@link #FILE} for files larger than {@link #AUTO_MEMORY_LIMIT}.
+     */
+    AUTO;
+
+    /**
+     * Files up to this size are read into memory in {@link #AUTO} mode.
+     */
+    public static final long AUTO_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * Loads a document.
+     *
+     * @param file     The file to load.
+     * @param password The password, can be null.
+     * @return The document, never null.
+     * @throws IOException If the file could not be read or parsed.
+     */
+    public PDDocument load(Path file, String password) throws IOException {
+        return load(file, password, null);
+    }
+
+    /**
+     * Loads a document that doesn't keep the file open.<br>
+     * If the document would read from the file on demand, the file is copied to a temporary file first.
+     * Needed if the file may be replaced by the output: on Windows open or mapped files can't be replaced.
+     *
+     * @param file     The file to load.
+     * @param password The password, can be null.
+     * @return The document, never null.
+     * @throws IOException If the file could not be read or parsed.
+     */
+    public PDDocument loadCopy(Path file, String password) throws IOException {
+        if (this == MEMORY || (this == AUTO && Files.size(file) <= AUTO_MEMORY_LIMIT))
+            return load(file, password);
+        Path copy = Files.createTempFile("jPdfTool", ".pdf");
+        try {
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        return load(new SpoolFile(copy, 1), password);
+    }
+
+    /**
+     * Loads a document.
+     *
+     * @param spool    The temporary file to load. It is released if no longer needed,
+     *                 at the latest if the document is closed.
+     * @param password The password, can be null.
+     * @return The document, never null.
+     * @throws IOException If the file could not be read or parsed.
+     */
+    PDDocument load(SpoolFile spool, String password) throws IOException {
+        return load(spool.file, password, spool);
+    }
+
+    private PDDocument load(Path file, String password, SpoolFile spool) throws IOException {
+        LoadMode mode = this;
+        RandomAccessRead source;
+        try {
+            final long size = Files.size(file);
+            if (mode == AUTO)
+                mode = size > AUTO_MEMORY_LIMIT ? FILE : MEMORY;
+            else if (mode == MAPPED && size >= Integer.MAX_VALUE)
+                mode = FILE;
+
+            source = switch (mode) {
+                case MAPPED -> new RandomAccessReadMemoryMappedFile(file.toFile());
+                case FILE -> new RandomAccessReadBufferedFile(file.toFile());
+                default -> new RandomAccessReadBuffer(Files.readAllBytes(file));
+            };
+        } catch (IOException | RuntimeException e) {
+            if (spool != null)
+                spool.release();
+            throw e;
+        }
+        // From here the spool is released by the source (or now, if no longer needed).
+        if (spool != null) {
+            if (mode == MEMORY)
+                spool.release();
+            else
+                source = new DeletingRandomAccessRead(source, spool);
+        }
+        try {
+            // The document owns the source and closes it.
+            return Loader.loadPDF(source, password == null ? "" : password, null, null,
+                    mode == MEMORY ? IOUtils.createMemoryOnlyStreamCache() : IOUtils.createTempFileOnlyStreamCache());
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /**
+     * Saves a document to a temporary file and loads it from there.<br>
+     * Used to get a document in its saved (e.g. encrypted) state without holding the file in memory.
+     * The temporary file is deleted if the returned document is closed.
+     *
+     * @param document The document, closed by the call.
+     * @param password The password to load the saved document.
+     * @return The reloaded document, never null.
+     * @throws IOException If the document could not be written or read.
+     */
+    public static PDDocument reload(PDDocument document, String password) throws IOException {
+        Path file = Files.createTempFile("jPdfTool", ".pdf");
+        try (document; OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
+            document.save(os, CompressParameters.NO_COMPRESSION);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return FILE.load(new SpoolFile(file, 1), password);
+    }
+
+    /**
+     * Parses a mode, case-insensitive.
+     *
+     * @param mode The name of the mode.
+     * @return The mode, {@link #AUTO} if the name is null or unknown.
+     */
+    public static LoadMode parse(String mode) {
+        if (mode != null) {
+            for (LoadMode m : values())
+                if (m.name().equalsIgnoreCase(mode.trim()))
+                    return m;
+        }
+        return AUTO;
+    }
+}
@@ -0,0 +1,34 @@
+package com.bw.jPdfTool.model;
+
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * How documents are optimized on save.
+ * Objects that are no longer referenced (e.g. the duplicates removed by deduplication) are never written.
+ */
+public final class OutputOptions {
+
+    /**
+     * Number of objects per object stream. 0 writes all objects without object streams.
+     */
+    public int objectStreamSize = CompressParameters.DEFAULT_OBJECT_STREAM_SIZE;
+
+    /**
+     * Share identical resources (fonts, images, ...) of merged documents,
+     * applied while merging, see {@link DocumentProxy#setDeduplicateResources(boolean)}.
+     */
+    public boolean deduplicate = false;
+
+    /**
+     * Gets the parameters for {@link PDDocument#save(java.io.OutputStream, CompressParameters)}.
+     */
+    public CompressParameters getCompressParameters() {
+        return objectStreamSize > 0 ? new CompressParameters(objectStreamSize) : CompressParameters.NO_COMPRESSION;
+    }
+
+    @Override
+    public String toString() {
+        return "objectStreamSize=" + objectStreamSize + ", deduplicate=" + deduplicate;
+    }
+}
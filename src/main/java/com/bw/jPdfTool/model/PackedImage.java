@@ -0,0 +1,356 @@
+package com.bw.jPdfTool.model;
+
+import com.bw.jPdfTool.Log;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Storage for the pixels of a rendered page.<br>
+ * Depending on the storage type, the pixels are kept as heap image or
+ * outside the heap in a compact form: 1 byte per pixel for gray pages,
+ * 3 bytes per pixel for colored pages. A {@link BufferedImage} is only created on demand.<br>
+ * Mapped images share one temporary file. They have to be {@link #release() released}
+ * if no longer needed, so the space can be reused.
+ */
+public final class PackedImage {
+
+    /**
+     * Where the pixels are stored.
+     */
+    public enum Storage {
+        /**
+         * Keep the rendered image on the heap as it is.
+         */
+        HEAP,
+        /**
+         * Compact pixels in a direct byte buffer.
+         */
+        DIRECT,
+        /**
+         * Compact pixels in a memory mapped temporary file, shared by all images.
+         */
+        MAPPED
+    }
+
+    private final BufferedImage heapImage;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final int size;
+    /**
+     * Null after release, so that the mapping can be removed.
+     */
+    private ByteBuffer pixels;
+    private Chunk chunk;
+    private boolean released = false;
+
+    private PackedImage(BufferedImage heapImage) {
+        this.heapImage = heapImage;
+        this.pixels = null;
+        this.width = heapImage.getWidth();
+        this.height = heapImage.getHeight();
+        this.channels = 0;
+        this.size = 0;
+        this.chunk = null;
+    }
+
+    private PackedImage(ByteBuffer pixels, Chunk chunk, int width, int height, int channels) {
+        this.heapImage = null;
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.size = pixels.capacity();
+        this.chunk = chunk;
+    }
+
+    /**
+     * Stores an image.<br>
+     * Images with alpha channel are always kept on the heap.
+     *
+     * @param image   The image.
+     * @param storage The storage to use.
+     * @return The packed image.
+     */
+    public static PackedImage pack(BufferedImage image, Storage storage) {
+        if (storage == Storage.HEAP || image.getColorModel().hasAlpha())
+            return new PackedImage(image);
+
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final int[] rgb = getRGB(image);
+        final boolean gray = isGray(rgb);
+        final int channels = gray ? 1 : 3;
+
+        final long size = (long) w * h * channels;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Image too large");
+        Chunk chunk = null;
+        ByteBuffer buffer;
+        if (storage == Storage.MAPPED) {
+            chunk = MappedFile.instance.allocate((int) size);
+            buffer = chunk.slice();
+        } else {
+            buffer = ByteBuffer.allocateDirect((int) size);
+        }
+        // Same byte order as the rasters of TYPE_BYTE_GRAY and TYPE_3BYTE_BGR, see toBufferedImage.
+        for (int v : rgb) {
+            if (gray) {
+                buffer.put((byte) v);
+            } else {
+                buffer.put((byte) v);
+                buffer.put((byte) (v >> 8));
+                buffer.put((byte) (v >> 16));
+            }
+        }
+        buffer.flip();
+        return new PackedImage(buffer, chunk, w, h, channels);
+    }
+
+    /**
+     * Gets the pixels as image. For packed images a new image is created on each call.
+     *
+     * @return The image or null if the image was released.
+     */
+    public synchronized BufferedImage toBufferedImage() {
+        if (heapImage != null)
+            return heapImage;
+        if (released)
+            return null;
+        BufferedImage image = new BufferedImage(width, height,
+                channels == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        pixels.duplicate().get(data);
+        return image;
+    }
+
+    /**
+     * Releases the storage. For mapped images the space in the file is reused by other images.
+     */
+    public synchronized void release() {
+        if (!released) {
+            released = true;
+            if (chunk != null)
+                MappedFile.instance.release(chunk);
+            chunk = null;
+            pixels = null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of bytes used to store the pixels.
+     */
+    public long getSize() {
+        if (heapImage != null) {
+            DataBuffer db = heapImage.getRaster().getDataBuffer();
+            return (long) db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+        }
+        return size;
+    }
+
+    private static int[] getRGB(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB && image.getRaster().getDataBuffer() instanceof DataBufferInt dbi
+                && dbi.getNumBanks() == 1 && dbi.getSize() == image.getWidth() * image.getHeight()) {
+            return dbi.getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static boolean isGray(int[] rgb) {
+        for (int v : rgb) {
+            int r = (v >> 16) & 0xFF;
+            int g = (v >> 8) & 0xFF;
+            int b = v & 0xFF;
+            if (r != g || g != b)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Space for one image in a region of the mapped file.
+     */
+    private record Chunk(MappedFile.Region region, int offset, ByteBuffer slice) {
+    }
+
+    /**
+     * The temporary file of all mapped images.<br>
+     * The file is mapped in regions of {@link #REGION_SIZE} bytes (or the size of a larger image).
+     * Inside a region, the space of released images is reused (first fit). Empty regions are dropped,
+     * the mapping is removed by the garbage collector and the file is truncated if possible.
+     * The file is deleted if no region is left, at the latest on exit.
+     */
+    static final class MappedFile {
+
+        static final int REGION_SIZE = 64 * 1024 * 1024;
+
+        static final MappedFile instance = new MappedFile();
+
+        static final class Region {
+            final long position;
+            final int size;
+            final ByteBuffer buffer;
+            /**
+             * Free blocks, offset to length. Adjacent blocks are merged.
+             */
+            final TreeMap<Integer, Integer> free = new TreeMap<>();
+            int images = 0;
+
+            Region(long position, ByteBuffer buffer) {
+                this.position = position;
+                this.buffer = buffer;
+                this.size = buffer.capacity();
+                free.put(0, size);
+            }
+
+            /**
+             * @return The offset or -1 if there is no free block large enough.
+             */
+            int allocate(int length) {
+                Integer offset = null;
+                for (Map.Entry<Integer, Integer> e : free.entrySet()) {
+                    if (e.getValue() >= length) {
+                        offset = e.getKey();
+                        break;
+                    }
+                }
+                if (offset == null)
+                    return -1;
+                int blockLength = free.remove(offset);
+                if (blockLength > length)
+                    free.put(offset + length, blockLength - length);
+                ++images;
+                return offset;
+            }
+
+            void release(int offset, int length) {
+                --images;
+                Map.Entry<Integer, Integer> next = free.ceilingEntry(offset);
+                if (next != null && next.getKey() == offset + length) {
+                    length += next.getValue();
+                    free.remove(next.getKey());
+                }
+                Map.Entry<Integer, Integer> previous = free.floorEntry(offset);
+                if (previous != null && previous.getKey() + previous.getValue() == offset) {
+                    offset = previous.getKey();
+                    length += previous.getValue();
+                }
+                free.put(offset, length);
+            }
+        }
+
+        /**
+         * Sorted by position in the file.
+         */
+        private final List<Region> regions = new ArrayList<>();
+        private FileChannel channel;
+        private boolean shutdownHookAdded = false;
+
+        synchronized Chunk allocate(int size) {
+            for (Region r : regions) {
+                int offset = r.allocate(size);
+                if (offset >= 0)
+                    return createChunk(r, offset, size);
+            }
+            Region region = map(Math.max(REGION_SIZE, size));
+            return createChunk(region, region.allocate(size), size);
+        }
+
+        synchronized void release(Chunk chunk) {
+            Region region = chunk.region();
+            region.release(chunk.offset(), chunk.slice().capacity());
+            if (region.images == 0) {
+                regions.remove(region);
+                if (regions.isEmpty())
+                    close();
+                else
+                    truncate();
+            }
+        }
+
+        /**
+         * Closes and deletes the file. Images that are not released yet stay readable.
+         */
+        synchronized void close() {
+            regions.clear();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.error("Failed to close image file: %s", e.getMessage());
+                }
+                channel = null;
+            }
+        }
+
+        private static Chunk createChunk(Region region, int offset, int size) {
+            ByteBuffer slice = region.buffer.duplicate().position(offset).limit(offset + size).slice();
+            return new Chunk(region, offset, slice);
+        }
+
+        /**
+         * Maps a new region at the first gap in the file that is large enough.
+         */
+        private Region map(int size) {
+            try {
+                if (channel == null) {
+                    Path file = Files.createTempFile("jPdfTool", ".pixels");
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                    if (!shutdownHookAdded) {
+                        shutdownHookAdded = true;
+                        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "PackedImageCleanup"));
+                    }
+                }
+                long position = 0;
+                int index = 0;
+                while (index < regions.size() && regions.get(index).position - position < size) {
+                    Region r = regions.get(index);
+                    position = r.position + r.size;
+                    ++index;
+                }
+                // Mapping beyond the end enlarges the file.
+                Region region = new Region(position, channel.map(FileChannel.MapMode.READ_WRITE, position, size));
+                regions.add(index, region);
+                return region;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Removes the unused end of the file.
+         */
+        private void truncate() {
+            Region last = regions.get(regions.size() - 1);
+            try {
+                channel.truncate(last.position + last.size);
+            } catch (IOException e) {
+                // E.g. on Windows as long as the removed mappings are not collected. Tried again on next release.
+                Log.debug("Failed to truncate image file: %s", e.getMessage());
+            }
+        }
+    }
+}
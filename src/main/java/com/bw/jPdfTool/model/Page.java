@@ -1,6 +1,8 @@
 package com.bw.jPdfTool.model;
 
 import com.bw.jPdfTool.ImageExtractor;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
@@ -14,15 +16,108 @@ public class Page {
 
     public int dpi = 0;
     public double scale = 0;
-    public BufferedImage image;
     public String error;
 
+    /**
+     * Size of the rendered image in pixels. 0 if not rendered yet.<br>
+     * Stays valid if the image was evicted from the cache.
+     */
+    public int imageWidth = 0;
+    public int imageHeight = 0;
+
+    /**
+     * True if the image was evicted from the cache.
+     * Evicted pages are only rendered again if the image is requested.
+     */
+    public volatile boolean evicted = false;
+
+    /**
+     * True if the image of an evicted page was requested.
+     */
+    public volatile boolean imageRequested = false;
+
+    /**
+     * True if the page is in the visible range of its document.
+     * The image of a visible page is not evicted from the cache.
+     */
+    public volatile boolean visible = false;
+
+    /**
+     * Incremented if the content of the page is changed (e.g. rotated) or the page is removed.
+     * Renders of older content are cancelled.
+     */
+    public volatile int contentVersion = 0;
+
+    /**
+     * True while a render worker is working on this page.
+     */
+    public boolean rendering = false;
+
+    /**
+     * True if the page shall be rendered with the dpi from preferences.
+     * Otherwise, the page is rendered with the resolution needed for the preview.
+     */
+    public boolean fullResolution = false;
+
+    /**
+     * Size of the page in points, with rotation applied. 0 if unknown.<br>
+     * Set for all pages when the document is loaded, so the layout doesn't need to wait for rendering.
+     */
+    public float width = 0;
+    public float height = 0;
+
     public Page(DocumentProxy document, int pageNb, int pageCount) {
         this.pageNb = pageNb;
         this.document = document;
         this.pageCount = pageCount;
     }
 
+    /**
+     * Gets the rendered image from the image cache.
+     * If the image was evicted, it is rendered again in background.
+     *
+     * @return The image or null if not available (yet).
+     */
+    public BufferedImage getImage() {
+        BufferedImage image = document.getImageCache().get(this);
+        if (image == null && evicted)
+            document.requestImage(this);
+        return image;
+    }
+
+    /**
+     * Checks if the image is available, without any side effects.
+     */
+    public boolean hasImage() {
+        return document.getImageCache().contains(this);
+    }
+
+    /**
+     * Sets the rendered image.
+     *
+     * @param image The image or null to remove the current image.
+     */
+    public void setImage(BufferedImage image) {
+        if (image != null) {
+            imageWidth = image.getWidth();
+            imageHeight = image.getHeight();
+            imageRequested = false;
+        } else {
+            evicted = false;
+        }
+        document.getImageCache().put(this, image);
+    }
+
+    /**
+     * Sets the size of the page from the crop box (the rendered area) and the rotation.
+     */
+    public void setGeometry(PDPage pdPage) {
+        PDRectangle box = pdPage.getCropBox();
+        boolean swap = (pdPage.getRotation() / 90) % 2 != 0;
+        width = swap ? box.getHeight() : box.getWidth();
+        height = swap ? box.getWidth() : box.getHeight();
+    }
+
     public void rotatePage(int degree) {
         document.rotatePage(pageNb, degree);
     }
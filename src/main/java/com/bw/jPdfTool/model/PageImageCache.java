@@ -0,0 +1,174 @@
+package com.bw.jPdfTool.model;
+
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory bounded cache for rendered page images.<br>
+ * If the byte budget is exceeded, the least recently used images are evicted.
+ * Evicted pages are marked with {@link Page#evicted} and are rendered again on demand.
+ * Images of visible pages (see {@link Page#visible}) are never evicted, so the budget is
+ * exceeded if it is too small for the visible pages. Otherwise painting and rendering would
+ * evict each other's images endlessly.<br>
+ * The pixels are stored as {@link PackedImage}, see {@link #setStorage(PackedImage.Storage)}.
+ */
+public class PageImageCache {
+
+    private final LinkedHashMap<Page, PackedImage> images = new LinkedHashMap<>(64, 0.75f, true);
+    private long budgetBytes;
+    private long usedBytes = 0;
+    private volatile PackedImage.Storage storage = PackedImage.Storage.HEAP;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param budgetBytes The maximal number of bytes of all images in the cache.
+     */
+    public PageImageCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Gets the image of a page and marks it as recently used.<br>
+     * If the pixels are stored outside the heap, a new image is created.
+     *
+     * @param page The page.
+     * @return The image or null if not in cache or evicted meanwhile.
+     */
+    public BufferedImage get(Page page) {
+        PackedImage image;
+        synchronized (this) {
+            image = images.get(page);
+            if (image == null)
+                ++misses;
+            else
+                ++hits;
+        }
+        return image == null ? null : image.toBufferedImage();
+    }
+
+    /**
+     * Checks if the image of the page is in cache.
+     * Doesn't change the usage order nor the statistics.
+     */
+    public synchronized boolean contains(Page page) {
+        return images.containsKey(page);
+    }
+
+    /**
+     * Puts the image of a page. Evicts other images if the budget is exceeded.
+     *
+     * @param page  The page.
+     * @param image The image. If null, the page is removed.
+     */
+    public void put(Page page, BufferedImage image) {
+        if (image == null) {
+            remove(page);
+            return;
+        }
+        // Pack outside the lock, painting shall not wait for it.
+        PackedImage packed = PackedImage.pack(image, storage);
+        synchronized (this) {
+            PackedImage old = images.put(page, packed);
+            if (old != null) {
+                usedBytes -= old.getSize();
+                old.release();
+            }
+            usedBytes += packed.getSize();
+            page.evicted = false;
+            evict(page);
+        }
+    }
+
+    /**
+     * Removes the image of a page. The page is not marked as evicted.
+     */
+    public synchronized void remove(Page page) {
+        PackedImage old = images.remove(page);
+        if (old != null) {
+            usedBytes -= old.getSize();
+            old.release();
+        }
+    }
+
+    /**
+     * Removes the images of the pages.
+     */
+    public synchronized void removeAll(Collection<Page> pages) {
+        for (Page p : pages)
+            remove(p);
+    }
+
+    /**
+     * Sets the budget. Evicts images if the new budget is exceeded.
+     *
+     * @param budgetBytes The maximal number of bytes of all images in the cache.
+     */
+    public synchronized void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evict(null);
+    }
+
+    /**
+     * Sets the storage for images put from now on.
+     */
+    public void setStorage(PackedImage.Storage storage) {
+        this.storage = storage == null ? PackedImage.Storage.HEAP : storage;
+    }
+
+    public PackedImage.Storage getStorage() {
+        return storage;
+    }
+
+    public synchronized long getBudget() {
+        return budgetBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Evicts the least recently used images of pages that are not visible until the budget is met.
+     *
+     * @param keep Page that shall not be evicted, can be null.
+     */
+    private void evict(Page keep) {
+        Iterator<Map.Entry<Page, PackedImage>> it = images.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<Page, PackedImage> e = it.next();
+            if (e.getKey() != keep && !e.getKey().visible) {
+                usedBytes -= e.getValue().getSize();
+                e.getValue().release();
+                e.getKey().evicted = true;
+                it.remove();
+                ++evictions;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d images, %d of %d MB (%s), %d hits, %d misses, %d evictions",
+                images.size(), usedBytes / (1024 * 1024), budgetBytes / (1024 * 1024), storage, hits, misses, evictions);
+    }
+}
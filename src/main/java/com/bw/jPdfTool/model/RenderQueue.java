@@ -2,51 +2,121 @@ package com.bw.jPdfTool.model;
 
 import com.bw.jPdfTool.Log;
 import com.bw.jPdfTool.Preferences;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.pdmodel.PDPage;
 
-import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 
 /**
- * Worker-Queue with background thread to render pages.
+ * Worker-Queue with a pool of background threads to render pages.<br>
+ * All workers can render pages of the same document in parallel,
+ * each worker uses its own view of the document (see {@link RenderView}).
  */
 public class RenderQueue {
 
     private final LinkedBlockingDeque<DocumentProxy> documentQueue = new LinkedBlockingDeque<>();
-    private boolean running = false;
-    private int dpi = 300;
+    /**
+     * The documents in {@link #documentQueue}, each document is queued only once.
+     */
+    private final Set<DocumentProxy> queuedDocuments = ConcurrentHashMap.newKeySet();
+    private final List<PdfRenderWorker> workers = new ArrayList<>();
+    private volatile boolean running = false;
+    private volatile int dpi = 300;
+    private int workerCount;
+    private final PageImageCache imageCache = new PageImageCache(Runtime.getRuntime().maxMemory() / 4);
+    private DiskRenderCache diskCache;
+
+    /**
+     * Creates a queue with the number of workers from preferences.
+     */
+    public RenderQueue() {
+        this(0);
+    }
+
+    /**
+     * Creates a queue with a fixed number of workers.
+     *
+     * @param workerCount The number of render threads. If &lt;= 0 the
+     *                    preference {@value Preferences#USER_PREF_RENDER_THREADS} is used.
+     */
+    public RenderQueue(int workerCount) {
+        this.workerCount = workerCount;
+    }
 
     /**
-     * Starts the queue worker.
-     * The thread will be marked as daemon.
+     * Starts the queue workers.
+     * The threads will be marked as daemon.
      */
-    public void start() {
+    public synchronized void start() {
         if (!running) {
             var prefs = Preferences.getInstance();
             dpi = prefs.getDpi();
             prefs.addPropertyChangeListener(propertyChangeListener, Preferences.USER_PREF_DPI);
+            if (workerCount <= 0)
+                workerCount = prefs.getRenderThreads();
+            imageCache.setBudget(prefs.getImageCacheSize());
+            imageCache.setStorage(prefs.getImageStorage());
+            long diskCacheSize = prefs.getDiskCacheSize();
+            if (diskCacheSize > 0)
+                diskCache = new DiskRenderCache(DiskRenderCache.getDefaultDirectory(), diskCacheSize);
             running = true;
-            PdfRenderWorker worker = new PdfRenderWorker();
-            worker.setDaemon(true);
-            worker.setName("PdfRenderer");
-            worker.start();
+            for (int i = 0; i < workerCount; ++i) {
+                PdfRenderWorker worker = new PdfRenderWorker();
+                worker.setDaemon(true);
+                worker.setName("PdfRenderer-" + (i + 1));
+                workers.add(worker);
+                worker.start();
+            }
+            Log.debug("Started %d render workers", workerCount);
         }
     }
 
     private final PropertyChangeListener propertyChangeListener =
             evt -> dpi = Preferences.getInstance().getDpi();
 
-    public void stop() {
+    public synchronized void stop() {
         Preferences.getInstance().removePropertyChangeListener(propertyChangeListener, Preferences.USER_PREF_DPI);
         if (running) {
             running = false;
+            for (PdfRenderWorker worker : workers)
+                worker.interrupt();
+            workers.clear();
         }
     }
 
+    /**
+     * Get the number of workers.
+     *
+     * @return The number of render threads, 0 if not started yet and not configured.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Get the dpi from preferences, used for full resolution rendering.
+     */
+    public int getDpi() {
+        return dpi;
+    }
+
+    /**
+     * Get the cache for the rendered images of all documents of this queue.
+     */
+    public PageImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * Queues a document for rendering. Does nothing if the document is already queued.
+     */
     public void addDocument(DocumentProxy document) {
-        if (document != null)
+        if (document != null && queuedDocuments.add(document))
             documentQueue.offer(document);
     }
 
@@ -57,62 +127,109 @@ public class RenderQueue {
         public void run() {
             while (running) {
                 DocumentProxy proxy;
-
                 try {
+                    proxy = documentQueue.take();
+                } catch (InterruptedException ignored) {
+                    continue;
+                }
+                queuedDocuments.remove(proxy);
+                if (proxy.isClosed())
+                    continue;
+                Page page = proxy.claimPageToRender();
+                if (page != null) {
+                    // More pages may be left, give idle workers the chance to join.
+                    addDocument(proxy);
+                    renderPages(proxy, page);
+                }
+            }
+        }
 
+        /**
+         * Renders the claimed page and all further pages this worker can claim.
+         */
+        protected void renderPages(DocumentProxy proxy, Page page) {
+            RenderView view = null;
+            try {
+                Log.debug("Render document started");
+                while (page != null && !proxy.isClosed()) {
+                    boolean rendered = false;
                     try {
-                        proxy = documentQueue.take();
-                    } catch (InterruptedException ignored) {
-                        continue;
-                    }
-                    if (proxy.isClosed())
-                        continue;
-                    PDDocument document = proxy.getDocument();
-                    if (document != null) {
-                        Log.debug("Render document started");
-                        PDFRenderer renderer = new PDFRenderer(document);
-
-                        RenderingHints renderingHints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                        renderingHints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-                        renderingHints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-                        renderer.setRenderingHints(renderingHints);
-
-                        // Check in loop for cases where the document was manipulated meanwhile.
-                        while (proxy.needsRendering()) {
-                            int pdPageCount = document.getNumberOfPages();
-                            for (int i = 0; i < proxy.getPageCount(); i++) {
-                                if (proxy.isClosed())
-                                    break;
-                                Page page = proxy.getPage(i + 1);
-                                if (page != null && page.image == null && page.error == null) {
-                                    if (pdPageCount > i) {
-                                        Log.debug("Render page #%d", i);
-                                        try {
-                                            page.image = renderer.renderImageWithDPI(i, dpi);
-                                            if (page.image == null) {
-                                                page.error = "Page not rendered (unknown error)";
-
-                                            }
-                                            page.dpi = dpi;
-                                            page.error = null;
-                                        } catch (Exception e) {
-                                            page.error = e.getMessage();
-                                        }
-                                    } else {
-                                        page.error = "Page Index of range (internal error)";
-                                    }
-                                    pageRendered(page);
-                                }
-                            }
+                        if (view == null || view.version != proxy.getVersion()) {
+                            if (view != null)
+                                view.close();
+                            view = proxy.createRenderView();
+                        }
+                        RenderTask task = proxy.createRenderTask(page, view);
+                        // If null, the document was changed meanwhile. The page is claimed again with a new view, if still needed.
+                        if (task != null) {
+                            renderPage(task);
+                            rendered = true;
                         }
-                        Log.debug("Render document finished");
+                    } catch (RenderTask.CancelledException e) {
+                        // The page is claimed again if it still needs rendering.
+                        Log.debug("%s", e.getMessage());
+                    } catch (Throwable e) {
+                        rendered = true;
+                        // Also errors like OutOfMemoryError of a large page, the worker shall survive them.
+                        page.error = e.getMessage() == null ? e.toString() : e.getMessage();
+                        Log.error("Render page failed: %s", page.error);
+                        if (Log.DEBUG) {
+                            e.printStackTrace();
+                        }
+                    } finally {
+                        proxy.pageRenderFinished(page);
                     }
-                } catch (Exception e) {
-                    Log.error("Render document failed: %s", e.getMessage());
-                    if (Log.DEBUG) {
-                        e.printStackTrace();
+                    if (rendered)
+                        pageRendered(page);
+                    page = proxy.claimPageToRender();
+                }
+                Log.debug("Render document finished. Image cache: %s", imageCache);
+            } finally {
+                if (view != null)
+                    view.close();
+                if (!proxy.needsRendering())
+                    proxy.releaseRenderSnapshot();
+            }
+        }
+
+        private void renderPage(RenderTask task) throws Exception {
+            final DocumentProxy proxy = task.proxy;
+            final RenderView view = task.view;
+            final Page page = task.page;
+            final int pageIndex = task.pageIndex;
+            if (view.document.getNumberOfPages() > pageIndex) {
+                PDPage pdPage = view.document.getPage(pageIndex);
+
+                // The size of the page is known from loading, the view may already be outdated.
+                final int renderDpi = proxy.getTargetDpi(page);
+                final DiskRenderCache cache = diskCache;
+                final String key = cache == null ? null : DiskRenderCache.getKey(pdPage, renderDpi, view.streamDigests);
+                BufferedImage image = key == null ? null : cache.get(key, pdPage.getRotation());
+                if (image == null) {
+                    Log.debug("Render page #%d with %d dpi", pageIndex, renderDpi);
+                    image = view.render(task, pageIndex, renderDpi);
+                    // Cancellation may have been missed by the renderer, the image could be incomplete.
+                    task.checkCancelled();
+                    if (image != null && key != null)
+                        cache.put(key, image, pdPage.getRotation());
+                } else {
+                    Log.debug("Page #%d with %d dpi from disk cache", pageIndex, renderDpi);
+                }
+                // Other pages may have been changed meanwhile, but not this one.
+                // Checked under the lock of the proxy, edits of the page can't happen before the image is set.
+                synchronized (proxy) {
+                    task.checkCancelled();
+                    if (image == null) {
+                        page.error = "Page not rendered (unknown error)";
+                    } else {
+                        page.setGeometry(pdPage);
+                        page.dpi = renderDpi;
+                        page.error = null;
+                        page.setImage(image);
                     }
                 }
+            } else {
+                page.error = "Page Index of range (internal error)";
             }
         }
 
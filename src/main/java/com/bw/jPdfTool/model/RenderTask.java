@@ -0,0 +1,54 @@
+package com.bw.jPdfTool.model;
+
+/**
+ * Render of one page by a worker.<br>
+ * The task is cancelled if the document is closed or the page was changed or removed after the task was created,
+ * because the image would be discarded anyway. Edits of other pages (e.g. moves) don't cancel the task.
+ * The renderer checks this between the drawing operations of the page, also inside forms,
+ * so even long renders (e.g. with high dpi) stop soon after an edit.
+ */
+final class RenderTask {
+
+    final DocumentProxy proxy;
+    final Page page;
+    final RenderView view;
+    /**
+     * The 0-based index of the page in the view.
+     */
+    final int pageIndex;
+    private final int contentVersion;
+
+    /**
+     * Created by {@link DocumentProxy#createRenderTask(Page, RenderView)}, so that index and content version
+     * match the view.
+     */
+    RenderTask(DocumentProxy proxy, Page page, RenderView view, int pageIndex) {
+        this.proxy = proxy;
+        this.page = page;
+        this.view = view;
+        this.pageIndex = pageIndex;
+        this.contentVersion = page.contentVersion;
+    }
+
+    boolean isCancelled() {
+        return proxy.isClosed() || page.contentVersion != contentVersion || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * @throws CancelledException If the task is cancelled.
+     */
+    void checkCancelled() {
+        if (isCancelled())
+            throw new CancelledException(page);
+    }
+
+    /**
+     * Thrown by the renderer if the task was cancelled.<br>
+     * Not an IOException, PDFBox only logs these if thrown inside a form or image.
+     */
+    static final class CancelledException extends RuntimeException {
+        CancelledException(Page page) {
+            super("Render of page #" + page.pageNb + " cancelled");
+        }
+    }
+}
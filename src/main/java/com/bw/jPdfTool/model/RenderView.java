@@ -0,0 +1,96 @@
+package com.bw.jPdfTool.model;
+
+import com.bw.jPdfTool.Log;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Private view of a document for one render worker.<br>
+ * PDFBox documents are not thread safe, so each worker renders from its own
+ * instance, parsed from the render snapshot of the {@link DocumentProxy}.
+ */
+final class RenderView {
+
+    /**
+     * The version of the proxy this view was created from.
+     */
+    final int version;
+    final PDDocument document;
+    private final CancellableRenderer renderer;
+    /**
+     * Digests of the streams for the keys of the {@link DiskRenderCache}.
+     */
+    final Map<COSStream, byte[]> streamDigests = new IdentityHashMap<>();
+
+    RenderView(int version, PDDocument document) {
+        this.version = version;
+        this.document = document;
+        this.renderer = new CancellableRenderer(document);
+
+        RenderingHints renderingHints = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        renderingHints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        renderingHints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        renderer.setRenderingHints(renderingHints);
+    }
+
+    /**
+     * Renders a page. Aborted with {@link RenderTask.CancelledException} if the task is cancelled meanwhile.
+     *
+     * @param task      The task.
+     * @param pageIndex The 0-based index of the page.
+     * @param dpi       The resolution.
+     */
+    BufferedImage render(RenderTask task, int pageIndex, int dpi) throws IOException {
+        renderer.task = task;
+        try {
+            return renderer.renderImageWithDPI(pageIndex, dpi);
+        } finally {
+            renderer.task = null;
+        }
+    }
+
+    void close() {
+        try {
+            document.close();
+        } catch (Exception e) {
+            Log.error("Error closing render view: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Renderer that checks the task between the drawing operations of a page.
+     */
+    private static final class CancellableRenderer extends PDFRenderer {
+
+        RenderTask task;
+
+        CancellableRenderer(PDDocument document) {
+            super(document);
+        }
+
+        @Override
+        protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+            final RenderTask pageTask = task;
+            return new PageDrawer(parameters) {
+                @Override
+                protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+                    if (pageTask != null)
+                        pageTask.checkCancelled();
+                    super.processOperator(operator, operands);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.bw.jPdfTool.model;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Output stream that writes to a temporary file and replaces the target on close.<br>
+ * Needed because documents loaded with {@link LoadMode#FILE} or {@link LoadMode#MAPPED}
+ * still read from their file: writing to the same file directly would destroy the source.
+ * On Windows open files can't be replaced at all, such inputs are read from a copy,
+ * see {@link LoadMode#loadCopy(Path, String)}.<br>
+ * An existing target keeps its permissions.
+ */
+public class ReplacingFileOutputStream extends FilterOutputStream {
+
+    private final Path target;
+    private final Path tmp;
+    private boolean discarded = false;
+    private boolean closed = false;
+
+    public ReplacingFileOutputStream(Path target) throws IOException {
+        this(target, target.toAbsolutePath().resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp"));
+    }
+
+    private ReplacingFileOutputStream(Path target, Path tmp) throws IOException {
+        // Not Files.createTempFile, the target shall get the default permissions.
+        super(new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        this.target = target;
+        this.tmp = tmp;
+    }
+
+    /**
+     * Discards all written data, the target is not touched on close.
+     */
+    public void discard() {
+        discarded = true;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            super.close();
+            if (!discarded) {
+                copyPermissions();
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * An existing target keeps its permissions.
+     */
+    private void copyPermissions() throws IOException {
+        if (Files.exists(target)) {
+            try {
+                Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(target));
+            } catch (UnsupportedOperationException e) {
+                // Not a posix file system
+            }
+        }
+    }
+}
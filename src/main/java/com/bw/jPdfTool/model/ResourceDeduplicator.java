@@ -0,0 +1,105 @@
+package com.bw.jPdfTool.model;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces references to identical resources (fonts, images, forms, ...) by references to one instance.<br>
+ * Merging the same or similar files copies all resources once per file, this makes them shared again.
+ * The duplicates are no longer referenced and are not written on save.<br>
+ * An instance remembers the resources it has seen, so pages appended later can be deduplicated
+ * without hashing the existing pages again.
+ */
+public final class ResourceDeduplicator {
+
+    private static final COSName[] CATEGORIES = {
+            COSName.XOBJECT, COSName.FONT, COSName.EXT_G_STATE, COSName.COLORSPACE,
+            COSName.PATTERN, COSName.SHADING, COSName.PROPERTIES
+    };
+
+    private final Map<String, COSBase> instances = new HashMap<>();
+    private final Map<COSStream, byte[]> streamDigests = new IdentityHashMap<>();
+    private final Set<COSDictionary> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int replaced = 0;
+
+    /**
+     * Deduplicates the resources of all pages.
+     *
+     * @param document The document.
+     * @return The number of replaced references.
+     * @throws IOException If some stream could not be read.
+     */
+    public int deduplicate(PDDocument document) throws IOException {
+        return deduplicate(document.getPages());
+    }
+
+    /**
+     * Deduplicates the resources of some pages with all resources seen before.
+     *
+     * @param pages The pages.
+     * @return The number of references replaced by this instance so far.
+     * @throws IOException If some stream could not be read.
+     */
+    public int deduplicate(Iterable<PDPage> pages) throws IOException {
+        for (PDPage page : pages) {
+            PDResources resources = page.getResources();
+            if (resources != null)
+                deduplicate(resources.getCOSObject());
+        }
+        return replaced;
+    }
+
+    private void deduplicate(COSDictionary resources) throws IOException {
+        if (!visited.add(resources))
+            return;
+        for (COSName category : CATEGORIES) {
+            COSDictionary entries = resources.getCOSDictionary(category);
+            if (entries == null)
+                continue;
+            for (COSName name : new ArrayList<>(entries.keySet())) {
+                COSBase item = entries.getItem(name);
+                // Only indirect objects can be shared. Objects copied by a merge are not yet indirect but will be written so.
+                COSBase resolved = resolve(item);
+                if (!(resolved instanceof COSDictionary dict) || (item == resolved && dict.isDirect()))
+                    continue;
+                // Forms and patterns have own resources, shared parts inside shall be found first.
+                COSDictionary nested = dict.getCOSDictionary(COSName.RESOURCES);
+                if (nested != null)
+                    deduplicate(nested);
+
+                String key = digest(dict);
+                COSBase instance = instances.putIfAbsent(key, item);
+                if (instance != null && resolve(instance) != dict) {
+                    entries.setItem(name, instance);
+                    ++replaced;
+                }
+            }
+        }
+    }
+
+    private static COSBase resolve(COSBase base) {
+        return base instanceof COSObject ref ? ref.getObject() : base;
+    }
+
+    private String digest(COSBase base) throws IOException {
+        MessageDigest md = CosDigest.create();
+        CosDigest.hash(md, base, new IdentityHashMap<>(), streamDigests);
+        return HexFormat.of().formatHex(md.digest());
+    }
+}
@@ -0,0 +1,39 @@
+package com.bw.jPdfTool.model;
+
+import com.bw.jPdfTool.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Temporary file shared by a number of users. Deleted if the last user released it.
+ */
+final class SpoolFile {
+
+    final Path file;
+    private final AtomicInteger references;
+
+    SpoolFile(Path file, int references) {
+        this.file = file;
+        this.references = new AtomicInteger(references);
+    }
+
+    /**
+     * Adds a user.
+     */
+    void acquire() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Log.error("Failed to delete '%s': %s", file, e.getMessage());
+            }
+        }
+    }
+}
@@ -10,8 +10,10 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Insets;
 import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.util.Objects;
 
@@ -27,6 +29,16 @@ public class ImageWidget extends JComponent {
     private boolean selected = false;
     private RenderingHints renderingHints = new RenderingHints(null);
 
+    /**
+     * Copy of the image with the size it is painted with, in the format of the screen.
+     * Scaling is done only if image or size changes, painting is a simple copy.
+     */
+    private BufferedImage scaledImage;
+    private Object scaledImageKey;
+    private int scaledImageSourceWidth;
+    private int scaledImageSourceHeight;
+    private RenderingHints scaledImageHints;
+
 
     public void setAlternativeText(String alternativeText) {
         if (!Objects.equals(this.alternativeText, alternativeText)) {
@@ -76,10 +88,29 @@ public class ImageWidget extends JComponent {
         if (image != this.image) {
             this.image = image;
             this.imageName = null;
-            repaint();
+            imageChanged();
         }
     }
 
+    /**
+     * Gets the object that identifies the current image. The scaled copy is reused as long as the key is the same,
+     * without calling {@link #getImage()}.<br>
+     * Subclasses that create the image on demand return a stable key and call {@link #imageChanged()}
+     * if the image is replaced.
+     */
+    protected Object getImageKey() {
+        return image;
+    }
+
+    /**
+     * Drops the scaled copy of the image and repaints.
+     */
+    protected void imageChanged() {
+        scaledImage = null;
+        scaledImageKey = null;
+        repaint();
+    }
+
     public boolean isSelected() {
         return selected;
     }
@@ -112,30 +143,76 @@ public class ImageWidget extends JComponent {
         int h = getHeight() - i.top - i.bottom;
         g.fillRect(0, 0, w, h);
 
-
-        if (image == null) {
-            if (alternativeText != null) {
-                FontMetrics fm = g2d.getFontMetrics();
-                var bounds = fm.getStringBounds(alternativeText, g2d);
-                g2d.setPaint(getForeground());
-                g2d.drawString(alternativeText, (int) (0.5 + (w - bounds.getWidth()) / 2), (h - fm.getAscent()) / 2);
-            }
-
+        // A valid scaled copy is painted without getting the image, which may need to be unpacked.
+        final Object key = getImageKey();
+        BufferedImage image = null;
+        int imgWidth;
+        int imgHeight;
+        if (key != null && key == scaledImageKey && scaledImage != null) {
+            imgWidth = scaledImageSourceWidth;
+            imgHeight = scaledImageSourceHeight;
         } else {
-            int imgWidth = image.getWidth();
-            int imgHeight = image.getHeight();
-
-            g2d.setRenderingHints(renderingHints);
-
-            int drawWidth = (int) (imgWidth * scale);
-            int drawHeight = (int) (imgHeight * scale);
+            image = getImage();
+            if (image == null) {
+                if (alternativeText != null) {
+                    FontMetrics fm = g2d.getFontMetrics();
+                    var bounds = fm.getStringBounds(alternativeText, g2d);
+                    g2d.setPaint(getForeground());
+                    g2d.drawString(alternativeText, (int) (0.5 + (w - bounds.getWidth()) / 2), (h - fm.getAscent()) / 2);
+                }
+                return;
+            }
+            imgWidth = image.getWidth();
+            imgHeight = image.getHeight();
+        }
 
-            int x = i.left + (w - drawWidth) / 2;
-            int y = i.top + (h - drawHeight) / 2;
+        g2d.setRenderingHints(renderingHints);
+
+        int drawWidth = (int) (imgWidth * scale);
+        int drawHeight = (int) (imgHeight * scale);
+
+        int x = i.left + (w - drawWidth) / 2;
+        int y = i.top + (h - drawHeight) / 2;
+
+        if (drawWidth > 0 && drawHeight > 0 && g2d.hitClip(x, y, drawWidth, drawHeight)) {
+            // Size in device pixels, differs from drawWidth on HiDPI screens.
+            AffineTransform tx = g2d.getTransform();
+            int deviceWidth = (int) Math.ceil(drawWidth * tx.getScaleX());
+            int deviceHeight = (int) Math.ceil(drawHeight * tx.getScaleY());
+            if (deviceWidth > 0 && deviceHeight > 0) {
+                BufferedImage scaled = scaledImage;
+                if (scaled == null || key == null || key != scaledImageKey || scaled.getWidth() != deviceWidth
+                        || scaled.getHeight() != deviceHeight || !renderingHints.equals(scaledImageHints)) {
+                    if (image == null)
+                        image = getImage();
+                    if (image == null)
+                        return;
+                    scaled = createScaledImage(image, key, g2d.getDeviceConfiguration(), deviceWidth, deviceHeight);
+                }
+                g2d.drawImage(scaled, x, y, drawWidth, drawHeight, null);
+            }
+        }
+    }
 
-            if (g2d.hitClip(x, y, drawWidth, drawHeight))
-                g2d.drawImage(image, x, y, drawWidth, drawHeight, null);
+    /**
+     * Creates the copy of the image with the size in device pixels.
+     */
+    private BufferedImage createScaledImage(BufferedImage image, Object key, GraphicsConfiguration gc, int width, int height) {
+        BufferedImage scaled = gc.createCompatibleImage(width, height, image.getTransparency());
+        Graphics2D sg = scaled.createGraphics();
+        try {
+            sg.setRenderingHints(renderingHints);
+            sg.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            sg.dispose();
         }
+        scaledImage = scaled;
+        scaledImageKey = key;
+        scaledImageSourceWidth = image.getWidth();
+        scaledImageSourceHeight = image.getHeight();
+        // The hints are shared and changed in place by the container.
+        scaledImageHints = (RenderingHints) renderingHints.clone();
+        return scaled;
     }
 
     public void setRenderingHints(RenderingHints hints) {
@@ -2,6 +2,8 @@ package com.bw.jPdfTool.ui;
 
 import com.bw.jPdfTool.model.Page;
 
+import java.awt.image.BufferedImage;
+
 /**
  * Shows a preview image of a page. Scales automatically to current size.
  */
@@ -12,6 +14,7 @@ public class PageWidget extends ImageWidget {
      */
     private int pageNr;
     private Page page;
+    private BufferedImage image;
 
     public PageWidget(int pageNr) {
         this.pageNr = pageNr;
@@ -24,15 +27,45 @@ public class PageWidget extends ImageWidget {
     }
 
     public void setPage(Page page) {
-        if (page != this.page) {
-            if (page != null) {
-                pageNr = page.pageNb;
-                this.setAlternativeText("# " + pageNr);
-            }
-            this.page = page;
+        if (page != this.page)
+            bind(page == null ? pageNr : page.pageNb, page);
+    }
+
+    /**
+     * Shows a page. Called by the container if the widget is reused for another page
+     * and if the image of the page has changed.
+     *
+     * @param pageNr The page number.
+     * @param page   The page or null if the page is not loaded yet.
+     */
+    public void bind(int pageNr, Page page) {
+        this.pageNr = page == null ? pageNr : page.pageNb;
+        this.page = page;
+        this.image = null;
+        setAlternativeText("# " + this.pageNr);
+        if (page != null)
             setScale(page.scale);
-            setImage(page.image);
-        }
+        imageChanged();
+    }
+
+    /**
+     * Gets the image from the page. Images stored outside the heap are unpacked
+     * only once, the widget holds the image until it is bound again.
+     */
+    @Override
+    public BufferedImage getImage() {
+        if (image == null && page != null)
+            image = page.getImage();
+        return image;
+    }
+
+    /**
+     * The page is the key of the scaled image: images from the page image cache
+     * may be a new object on each call.
+     */
+    @Override
+    protected Object getImageKey() {
+        return page;
     }
 
     public int getPageNumber() {
@@ -43,8 +76,8 @@ public class PageWidget extends ImageWidget {
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("Page ").append(pageNr).append(" selected:").append(isSelected());
-        if (page != null && page.image != null)
-            stringBuilder.append(" image ").append(page.image.getWidth()).append(" x ").append(page.image.getHeight());
+        if (page != null && page.imageWidth > 0)
+            stringBuilder.append(" image ").append(page.imageWidth).append(" x ").append(page.imageHeight);
         return stringBuilder.toString();
     }
 
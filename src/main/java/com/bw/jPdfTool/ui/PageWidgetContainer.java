@@ -3,49 +3,92 @@ package com.bw.jPdfTool.ui;
 import com.bw.jPdfTool.Log;
 import com.bw.jPdfTool.Preferences;
 import com.bw.jPdfTool.model.DocumentProxy;
+import com.bw.jPdfTool.model.EventDispatcher;
 import com.bw.jPdfTool.model.Page;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
 import javax.swing.JComponent;
 import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import java.awt.Dimension;
-import java.awt.Insets;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Hosts Page-Widgets for all pages of the document.
+ * Hosts Page-Widgets for the visible pages of the document.<br>
+ * Only the pages in the visible area (and a few around) get a widget. Widgets are reused if pages
+ * get out of view, positions are computed from the cached heights of the pages.
+ * So scrolling and resizing cost the same for any number of pages.
  */
 public class PageWidgetContainer extends JComponent {
 
-    private final java.util.List<PageWidget> widgets = new ArrayList<>();
+    /**
+     * Number of pages before and after the visible area that also get a widget.
+     */
+    private static final int OVERSCAN = 2;
+
+    /**
+     * Space of the border around the image of a page widget.
+     */
+    private static final int WIDGET_INSETS = 8;
+
+    private final Map<Integer, PageWidget> activeWidgets = new HashMap<>();
+    private final Deque<PageWidget> freeWidgets = new ArrayDeque<>();
     private final List<ListSelectionListener> selectionListenerList = new ArrayList<>();
     private DocumentProxy document;
-    private int orgPageCount = -1;
+    private int pageCount = 0;
+
+    /**
+     * Height of the widget of each page.
+     */
+    private int[] heights = new int[0];
+
+    /**
+     * Y-position of the widget of each page, last entry is the end of the last widget.
+     * Valid up to (including) index {@link #offsetsValid}.
+     */
+    private int[] offsets = {5};
+    private int offsetsValid = 0;
+    private int drawWidth = 0;
     private Dimension orgVS;
-    private Dimension orgSize;
-    private int space = 5;
+    private final int space = 5;
     private boolean refreshing = false;
     private PageWidget selectedPage;
     private final RenderingHints renderingHints = new RenderingHints(null);
+    private final ChangeListener viewportListener = e -> {
+        updateWidgets();
+        updateVisiblePages();
+    };
 
     private final DocumentProxy.PageConsumer pageConsumer = page -> {
-        PageWidget pw = getPageWidget(page.pageNb);
-        if (pw != null) {
-            pw.setPage(page);
-            orgSize = null;
+        if (page.pageNb > pageCount)
+            setPageCount(page.pageNb);
+        int idx = page.pageNb - 1;
+        int height = computeHeight(page);
+        if (height != heights[idx]) {
+            heights[idx] = height;
+            invalidateOffsets(idx);
             refresh();
+        }
+        PageWidget pw = activeWidgets.get(page.pageNb);
+        if (pw != null) {
+            pw.bind(page.pageNb, page);
             if (pw == selectedPage)
-                fireSelectionEvent(page.pageNb - 1);
+                fireSelectionEvent(idx);
         }
     };
 
@@ -53,19 +96,16 @@ public class PageWidgetContainer extends JComponent {
         @Override
         public void documentLoaded(PDDocument document) {
             int idx = getSelectedPageIndex();
-            removeAll();
-            widgets.clear();
-            selectedPage = null;
-            orgPageCount = -1;
-            int newPageCount = document.getNumberOfPages();
-            ensurePage(newPageCount);
+            releaseAll();
+            pageCount = 0;
+            setPageCount(document.getNumberOfPages());
             if (idx >= 0) {
-                if (widgets.isEmpty())
+                if (pageCount == 0)
                     setSelectedPage(null, true);
                 else
-                    setSelectedPage(widgets.get(Math.min(idx, widgets.size() - 1)));
+                    setSelectedPage(getPageWidget(Math.min(idx, pageCount - 1) + 1), true);
             }
-            repaint();
+            refresh();
         }
 
         @Override
@@ -104,8 +144,67 @@ public class PageWidgetContainer extends JComponent {
                 ? RenderingHints.VALUE_INTERPOLATION_BICUBIC : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
     }
 
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        JScrollPane scrollPane = getScrollPane();
+        if (scrollPane != null)
+            scrollPane.getViewport().addChangeListener(viewportListener);
+    }
+
+    @Override
+    public void removeNotify() {
+        JScrollPane scrollPane = getScrollPane();
+        if (scrollPane != null)
+            scrollPane.getViewport().removeChangeListener(viewportListener);
+        super.removeNotify();
+    }
+
+    /**
+     * Tells the document which pages are visible, so that these are rendered first.
+     */
+    protected void updateVisiblePages() {
+        if (document != null && !document.isClosed() && pageCount > 0) {
+            Rectangle visible = getVisibleRect();
+            if (!visible.isEmpty())
+                document.setVisiblePages(getPageIndexAt(visible.y) + 1, getPageIndexAt(visible.y + visible.height) + 1);
+        }
+    }
+
+    /**
+     * Binds widgets to the pages in and around the visible area, widgets of other pages are released.
+     * The selected page keeps its widget.
+     */
+    protected void updateWidgets() {
+        Rectangle visible = getVisibleRect();
+        int first = 0;
+        int last = -1;
+        if (pageCount > 0 && !visible.isEmpty()) {
+            first = Math.max(0, getPageIndexAt(visible.y) - OVERSCAN);
+            last = Math.min(pageCount - 1, getPageIndexAt(visible.y + visible.height) + OVERSCAN);
+        }
+        var it = activeWidgets.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            int idx = entry.getKey() - 1;
+            PageWidget w = entry.getValue();
+            if (w != selectedPage && (idx < first || idx > last)) {
+                it.remove();
+                release(w);
+            } else
+                layoutWidget(w, idx);
+        }
+        for (int i = first; i <= last; ++i)
+            getPageWidget(i + 1);
+    }
+
+    @Override
+    public void doLayout() {
+        updateWidgets();
+    }
+
     public int getSelectedPageIndex() {
-        return widgets.indexOf(getSelectedPage());
+        return selectedPage == null ? -1 : selectedPage.getPageNumber() - 1;
     }
 
     public PageWidget getSelectedPage() {
@@ -126,16 +225,15 @@ public class PageWidgetContainer extends JComponent {
 
             this.selectedPage = selectedPage;
 
-            int idx = widgets.indexOf(selectedPage);
             if (selectedPage != null) {
-                if (idx < 0)
+                if (activeWidgets.get(selectedPage.getPageNumber()) != selectedPage)
                     throw new IllegalArgumentException("Selected page is not in list");
                 selectedPage.setSelected(true);
             }
 
             if (selectedPage != null) {
                 if (selectedPage.getPage() != null) {
-                    fireSelectionEvent(idx);
+                    fireSelectionEvent(selectedPage.getPageNumber() - 1);
                 } else if (old != null) {
                     // Delay event until page is loaded
                     fireSelectionEvent(-1);
@@ -176,44 +274,155 @@ public class PageWidgetContainer extends JComponent {
         selectionListenerList.remove(l);
     }
 
+    /**
+     * Gets the widget of a page. If the page has no widget, a widget is bound to it.
+     *
+     * @param pageNb The 1-based page number.
+     * @return The widget or null if the page number is invalid.
+     */
     public PageWidget getPageWidget(int pageNb) {
-        ensurePage(pageNb);
-        return widgets.get(pageNb - 1);
+        if (pageNb < 1)
+            return null;
+        if (pageNb > pageCount)
+            setPageCount(pageNb);
+        PageWidget widget = activeWidgets.get(pageNb);
+        if (widget == null) {
+            widget = freeWidgets.poll();
+            if (widget == null)
+                widget = createWidget();
+            activeWidgets.put(pageNb, widget);
+            widget.bind(pageNb, getDocumentPage(pageNb));
+            widget.setVisible(true);
+        }
+        layoutWidget(widget, pageNb - 1);
+        return widget;
     }
 
+    private PageWidget createWidget() {
+        PageWidget widget = new PageWidget(0);
+        widget.setRenderingHints(renderingHints);
+        widget.addMouseListener(new MouseAdapter() {
 
-    private void ensurePage(int pageNb) {
-        int cc = widgets.size();
-        if (cc < pageNb) {
-            while (cc < pageNb) {
-                PageWidget widget = new PageWidget(++cc);
-                widget.setRenderingHints(renderingHints);
-                widget.addMouseListener(new MouseAdapter() {
-
-                    final PageWidget w = widget;
+            final PageWidget w = widget;
 
-                    @Override
-                    public void mousePressed(MouseEvent e) {
-                        setSelectedPage(w);
-                    }
-                });
-                widgets.add(widget);
-                add(widget);
+            @Override
+            public void mousePressed(MouseEvent e) {
+                setSelectedPage(w);
             }
-            refresh();
+        });
+        add(widget);
+        return widget;
+    }
+
+    private void release(PageWidget widget) {
+        widget.setVisible(false);
+        widget.setSelected(false);
+        // Drops the scaled image.
+        widget.bind(0, null);
+        freeWidgets.push(widget);
+    }
+
+    private void releaseAll() {
+        for (PageWidget w : activeWidgets.values())
+            release(w);
+        activeWidgets.clear();
+        selectedPage = null;
+    }
+
+    private Page getDocumentPage(int pageNb) {
+        if (document == null || document.isClosed() || document.getDocument() == null)
+            return null;
+        return document.getPage(pageNb);
+    }
+
+    /**
+     * Sets the number of pages. Heights of new pages are estimated until they are rendered.
+     */
+    private void setPageCount(int newPageCount) {
+        int oldPageCount = pageCount;
+        if (newPageCount != heights.length) {
+            heights = Arrays.copyOf(heights, newPageCount);
+            offsets = Arrays.copyOf(offsets, newPageCount + 1);
         }
+        pageCount = newPageCount;
+        for (int i = oldPageCount; i < newPageCount; ++i)
+            heights[i] = computeHeight(getDocumentPage(i + 1));
+        invalidateOffsets(Math.min(oldPageCount, newPageCount));
+        refresh();
     }
 
+    /**
+     * Computes the height of the widget of a page for the current width. Updates the scale of the page.<br>
+     * The page size is known before the page is rendered, so the height doesn't change if the image arrives.
+     */
+    private int computeHeight(Page page) {
+        if (page != null && page.imageWidth > 0)
+            page.scale = ((double) drawWidth) / page.imageWidth;
+        int drawHeight;
+        if (page != null && page.width > 0) {
+            drawHeight = (int) (0.5 + drawWidth * page.height / page.width);
+        } else if (page != null && page.imageWidth > 0) {
+            drawHeight = (int) (0.5 + (page.scale * page.imageHeight));
+        } else {
+            drawHeight = (int) (0.5 + drawWidth * (297f / 210f));
+        }
+        return drawHeight + WIDGET_INSETS + 4;
+    }
+
+    private void invalidateOffsets(int pageIndex) {
+        offsetsValid = Math.min(offsetsValid, pageIndex);
+    }
+
+    /**
+     * Gets the y-position of the widget of a page.
+     *
+     * @param pageIndex The 0-based index of the page, {@link #pageCount} for the end of the last page.
+     */
+    private int getOffset(int pageIndex) {
+        while (offsetsValid < pageIndex) {
+            offsets[offsetsValid + 1] = offsets[offsetsValid] + heights[offsetsValid] + space;
+            ++offsetsValid;
+        }
+        return offsets[pageIndex];
+    }
+
+    /**
+     * Gets the index of the page at a y-position.
+     */
+    private int getPageIndexAt(int y) {
+        getOffset(pageCount);
+        int low = 0;
+        int high = pageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= y)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    private void layoutWidget(PageWidget widget, int pageIndex) {
+        if (pageIndex < pageCount) {
+            Page page = widget.getPage();
+            if (page != null)
+                widget.setScale(page.scale);
+            widget.setBounds(5, getOffset(pageIndex), drawWidth + WIDGET_INSETS, heights[pageIndex]);
+        }
+    }
 
     public void clear() {
-        removeAll();
-        widgets.clear();
+        releaseAll();
         if (document != null) {
             document.removePageConsumer(pageConsumer);
             document.removeDocumentConsumer(docConsumer);
             document = null;
         }
-        orgPageCount = -1;
+        pageCount = 0;
+        heights = new int[0];
+        offsets = new int[]{5};
+        offsetsValid = 0;
         setSelectedPage(null);
         revalidate();
 
@@ -230,52 +439,33 @@ public class PageWidgetContainer extends JComponent {
     public Dimension getPreferredSize() {
 
         Dimension vs = getScrollPane().getViewport().getSize();
-        int wc = widgets.size();
-        if (orgSize == null ||
-                wc != orgPageCount ||
-                !vs.equals(orgVS)) {
-
-            int drawWidth = vs.width - 8 - (2 * space);
-            orgPageCount = wc;
+        if (!vs.equals(orgVS)) {
             orgVS = vs;
-            int x = 5;
-            int y = 5;
-            int w = 5;
-            int h = 5;
-            for (int i = 0; i < wc; ++i) {
-
-                PageWidget c = widgets.get(i);
-                Page page = c.getPage();
-                Insets insets = c.getBorder().getBorderInsets(this);
-                int drawHeight;
-                if (page != null && page.image != null) {
-                    page.scale = ((double) drawWidth) / page.image.getWidth();
-                    c.setScale(page.scale);
-                    c.setImage(page.image);
-                    drawHeight = (int) (0.5 + (page.scale * page.image.getHeight()));
-                } else {
-                    drawHeight = (int) (0.5 + drawWidth * (297f / 210f));
+            int newDrawWidth = vs.width - 8 - (2 * space);
+            if (newDrawWidth != drawWidth) {
+                drawWidth = newDrawWidth;
+                if (document != null && !document.isClosed()) {
+                    // Let the renderer create previews that fit the device resolution.
+                    var gc = getGraphicsConfiguration();
+                    double deviceScale = gc == null ? 1 : gc.getDefaultTransform().getScaleX();
+                    document.setPreviewWidth((int) Math.ceil(drawWidth * deviceScale));
                 }
-                drawHeight += insets.top + insets.bottom;
-
-                c.setLocation(x, y);
-                c.setSize(drawWidth + 8, drawHeight + 4);
-
-                h = y + c.getHeight();
-                y = h + space;
+                for (int i = 0; i < pageCount; ++i)
+                    heights[i] = computeHeight(getDocumentPage(i + 1));
+                invalidateOffsets(0);
             }
-            orgSize = new Dimension(w, h);
         }
-        return orgSize;
+        return new Dimension(5, pageCount == 0 ? 5 : getOffset(pageCount) - space);
     }
 
     /**
-     * Triggers a refresh of scales and layout.
+     * Triggers a refresh of scales and layout with the next update of the event dispatcher,
+     * after the pages rendered meanwhile are shown.
      */
     private void refresh() {
         if (!refreshing) {
             refreshing = true;
-            SwingUtilities.invokeLater(() -> {
+            EventDispatcher.getInstance().post(() -> {
                 refreshing = false;
                 revalidate();
                 repaint();
@@ -4,10 +4,14 @@ import com.bw.jPdfTool.Log;
 import com.bw.jPdfTool.Main;
 import com.bw.jPdfTool.Preferences;
 import com.bw.jPdfTool.SignatureTool;
+import com.bw.jPdfTool.SigningContext;
 import com.bw.jPdfTool.model.DocumentProxy;
+import com.bw.jPdfTool.model.LoadMode;
 import com.bw.jPdfTool.model.MergeOptions;
+import com.bw.jPdfTool.model.OutputOptions;
 import com.bw.jPdfTool.model.Page;
 import com.bw.jPdfTool.model.RenderQueue;
+import com.bw.jPdfTool.model.ReplacingFileOutputStream;
 import com.bw.jPdfTool.toast.Toast;
 import com.bw.jPdfTool.toast.ToastType;
 import com.bw.jPdfTool.toast.Toaster;
@@ -17,9 +21,7 @@ import com.bw.jtools.ui.ShapeMultiResolutionImage;
 import com.formdev.flatlaf.FlatLaf;
 import com.formdev.flatlaf.fonts.roboto.FlatRobotoFont;
 import com.formdev.flatlaf.util.SystemInfo;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.multipdf.Splitter;
-import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
@@ -38,12 +40,9 @@ import java.awt.dnd.DropTargetDropEvent;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -838,6 +837,9 @@ public class UI extends JSplitPane {
 
     private final JCheckBox storePasswords = new JCheckBox("Remember Passwords");
 
+    private final JPrefCheckBoxMenuItem deduplicateResources
+            = new JPrefCheckBoxMenuItem("Remove Duplicate Resources", Preferences.USER_PREF_DEDUPLICATE, false);
+
     private final JPrefCheckBoxMenuItem viewQualityAA
             = new JPrefCheckBoxMenuItem("Antialiasing", Preferences.USER_PREF_VIEWER_ANTIALIASING,
             Preferences.USER_PREF_VIEWER_ANTIALIASING_DEFAULT);
@@ -987,6 +989,14 @@ public class UI extends JSplitPane {
             JMenu options = new JMenu("Options");
             options.add(storePasswords);
             options.add(encryptionKeyLengthMenu);
+            deduplicateResources.setToolTipText(
+                    "<html>Fonts, images and other resources that are contained multiple times<br>" +
+                            "(e.g. after merging similar files) are stored only once.</html>");
+            deduplicateResources.addActionListener(e -> {
+                if (documentProxy != null)
+                    documentProxy.setDeduplicateResources(deduplicateResources.isSelected());
+            });
+            options.add(deduplicateResources);
             options.add(laf);
             options.add(renderQuality);
 
@@ -1362,6 +1372,7 @@ public class UI extends JSplitPane {
 
             setDocumentInformation(document);
             final boolean doSign = this.sign.isSelected();
+            final OutputOptions outputOptions = Preferences.getInstance().getOutputOptions(compression.isSelected());
 
             if ((!ownerPwd.isEmpty()) || (!userPwd.isEmpty())) {
                 AccessPermission ap = new AccessPermission();
@@ -1381,20 +1392,26 @@ public class UI extends JSplitPane {
                 if (doSign) {
                     // For some reason the encryption breaks if we sign fresh protected document.
                     // If we reload it (in protected state) it works.
-                    ByteArrayOutputStream os = new ByteArrayOutputStream(5 * 1024 * 1024);
-                    document.save(os, CompressParameters.NO_COMPRESSION);
-                    document.close();
-                    document = Loader.loadPDF(os.toByteArray(), ownerPwd.isEmpty() ? userPwd : ownerPwd);
+                    // Spooled through a temporary file, so the document is not held twice in memory.
+                    document = LoadMode.reload(document, ownerPwd.isEmpty() ? userPwd : ownerPwd);
                 }
             }
 
-            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file))) {
-                if (doSign) {
-                    if (!sign(document))
-                        return;
-                    document.saveIncremental(os);
-                } else {
-                    document.save(os);
+            try (ReplacingFileOutputStream os = new ReplacingFileOutputStream(file)) {
+                try {
+                    if (doSign) {
+                        if (!sign(document)) {
+                            os.discard();
+                            return;
+                        }
+                        document.saveIncremental(os);
+                    } else {
+                        document.save(os, outputOptions.getCompressParameters());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Keep the existing file.
+                    os.discard();
+                    throw e;
                 }
             }
         } finally {
@@ -1407,12 +1424,8 @@ public class UI extends JSplitPane {
     protected boolean sign(PDDocument document) {
         char[] pw = signaturePasswordField.getPassword();
         try {
-            SignatureTool createSignature = new SignatureTool();
-
-            try (InputStream is = Files.newInputStream(signatureKeyFile.toPath())) {
-                String alias = createSignature.addKey(is, pw);
-                createSignature.addSignature(document, alias, pw);
-            }
+            SignatureTool createSignature = new SignatureTool(SigningContext.get(signatureKeyFile.toPath(), pw));
+            createSignature.addSignature(document);
             Preferences pref = Preferences.getInstance();
             pref.set(Preferences.USER_PREF_SIG_PASSWORD, new String(pw));
             return true;
@@ -1469,6 +1482,8 @@ public class UI extends JSplitPane {
         moveRight.setEnabled(enabled);
         exportImages.setEnabled(enabled);
         if (enabled) {
+            if (page.getPage() != null)
+                page.getPage().document.requestFullResolution(page.getPage());
             pageNb.setText("Page " + page.getPageNumber());
             pageNb.setFont(normalFont);
             quality.setText(String.format("%d dpi (x %.2f)", page.getPage().dpi, page.getScale()));
@@ -1555,6 +1570,7 @@ public class UI extends JSplitPane {
 
         if (selectedFile != null) {
             documentProxy = new DocumentProxy(renderQueue);
+            documentProxy.setDeduplicateResources(Preferences.getInstance().getBoolean(Preferences.USER_PREF_DEDUPLICATE, false));
             documentProxy.addDocumentConsumer(new DocumentProxy.DocumentConsumer() {
 
                 @Override
@@ -1,10 +1,10 @@
 package com.bw.jPdfTool.ui;
 
 import com.bw.jPdfTool.Log;
+import com.bw.jPdfTool.Preferences;
 import com.bw.jPdfTool.model.DocumentProxy;
 import com.bw.jPdfTool.model.MergeOptions;
 import com.bw.jPdfTool.model.PdfLoadWorker;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
 
@@ -12,7 +12,6 @@ import javax.swing.JOptionPane;
 import javax.swing.JPasswordField;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.function.Consumer;
@@ -41,10 +40,8 @@ public class UIPdfLoadWorker extends SwingWorker<PDDocument, Void> implements Pd
     @Override
     protected PDDocument doInBackground() {
         try {
-            byte[] data = Files.readAllBytes(file);
-            PDDocument document = ownerPassword != null
-                    ? Loader.loadPDF(data, ownerPassword)
-                    : Loader.loadPDF(data);
+            // The file may be replaced by saving, it must not be kept open.
+            PDDocument document = Preferences.getInstance().getLoadMode().loadCopy(file, ownerPassword);
             documentProxy.error = null;
             document.setAllSecurityToBeRemoved(true);
             return document;
@@ -1,13 +1,27 @@
 package com.bw.jPdfTool;
 
+import com.bw.jPdfTool.cli.CommandExecuter;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import picocli.CommandLine;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
 import java.util.Objects;
 
 class MainTest {
@@ -90,6 +104,32 @@ class MainTest {
         });
     }
 
+    @Test
+    void test_deduplicate() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path testPdf = Paths.get(Objects.requireNonNull(MainTest.class.getResource("/Test.pdf")).toURI());
+
+            long[] sizes = new long[2];
+            for (int i = 0; i < sizes.length; ++i) {
+                Path outPdf = Files.createTempFile("jPdfToolTest", ".pdf");
+                Main main = new Main();
+                int exitCode = new CommandLine(main).execute("-pw", "testOwner",
+                        i == 0 ? "--no-deduplicate" : "--deduplicate",
+                        "-out", outPdf.toString()
+                        , testPdf.toString()
+                        , testPdf.toString());
+                Assertions.assertEquals(0, exitCode);
+                Assertions.assertEquals(0, main.executeCommands());
+
+                sizes[i] = Files.size(outPdf);
+                System.out.println("Created File: " + outPdf + " size " + sizes[i] + " bytes");
+                Files.delete(outPdf);
+            }
+            // The images of the second copy are shared with the first one.
+            Assertions.assertTrue(sizes[1] < sizes[0]);
+        });
+    }
+
     @Test
     void test_split() {
         Assertions.assertDoesNotThrow(() -> {
@@ -169,6 +209,203 @@ class MainTest {
         });
     }
 
+    @Test
+    void test_signing_encrypted_validates() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path testPdf = Paths.get(Objects.requireNonNull(MainTest.class.getResource("/Test.pdf")).toURI());
+            Path certificate = Paths.get(Objects.requireNonNull(MainTest.class.getResource("/test_pw_1234.p12")).toURI());
+
+            Path outPdf = Files.createTempFile("jPdfToolTest", ".pdf");
+
+            Main main = new Main();
+            int exitCode = new CommandLine(main).execute("-pw", "testOwner",
+                    "-upw", "test123",
+                    "-cert", certificate.toString(),
+                    "-cpw", "1234",
+                    "-out", outPdf.toString()
+                    , testPdf.toString());
+            Assertions.assertEquals(0, exitCode);
+            Assertions.assertEquals(0, main.executeCommands());
+
+            byte[] pdf = Files.readAllBytes(outPdf);
+            try (PDDocument document = Loader.loadPDF(pdf, "test123")) {
+                Assertions.assertTrue(document.isEncrypted());
+                List<PDSignature> signatures = document.getSignatureDictionaries();
+                Assertions.assertEquals(1, signatures.size());
+
+                PDSignature signature = signatures.get(0);
+                byte[] signedContent = signature.getSignedContent(pdf);
+                CMSSignedData signedData = new CMSSignedData(new CMSProcessableByteArray(signedContent), signature.getContents(pdf));
+                for (SignerInformation signer : signedData.getSignerInfos().getSigners()) {
+                    @SuppressWarnings("unchecked")
+                    X509CertificateHolder cert = (X509CertificateHolder) signedData.getCertificates().getMatches(signer.getSID()).iterator().next();
+                    Assertions.assertTrue(signer.verify(new JcaSimpleSignerInfoVerifierBuilder().build(cert)));
+                }
+            }
+            Files.delete(outPdf);
+        });
+    }
+
+    @Test
+    void test_load_mode_file_overwrite_input() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path testPdf = Paths.get(Objects.requireNonNull(MainTest.class.getResource("/Test.pdf")).toURI());
+
+            // Input is read on demand from the file and is overwritten by the output.
+            Path inOutPdf = Files.createTempFile("jPdfToolTest", ".pdf");
+            Files.copy(testPdf, inOutPdf, StandardCopyOption.REPLACE_EXISTING);
+            long orgFileSize = Files.size(inOutPdf);
+            System.out.println("Using File: " + inOutPdf + " size " + orgFileSize + " bytes");
+
+            Main main = new Main();
+            int exitCode = new CommandLine(main).execute("-pw", "testOwner",
+                    "--load-mode", "FILE",
+                    "-out", inOutPdf.toString()
+                    , inOutPdf.toString()
+                    , inOutPdf.toString());
+            Assertions.assertEquals(0, exitCode);
+
+            Assertions.assertTrue(main.isCli());
+            int code = main.executeCommands();
+            Assertions.assertEquals(0, code);
+
+            long newFileSize = Files.size(inOutPdf);
+            System.out.println("Created File: " + inOutPdf + " size " + newFileSize + " bytes");
+
+            Assertions.assertTrue(newFileSize > orgFileSize);
+            Files.delete(inOutPdf);
+        });
+    }
+
+    @Test
+    void test_load_mode_mapped_overwrite_input_keeps_permissions() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path testPdf = Paths.get(Objects.requireNonNull(MainTest.class.getResource("/Test.pdf")).toURI());
+
+            // The input is read from a copy, the mapping doesn't block the replacement (on Windows).
+            Path inOutPdf = Files.createTempFile("jPdfToolTest", ".pdf");
+            Files.copy(testPdf, inOutPdf, StandardCopyOption.REPLACE_EXISTING);
+            long orgFileSize = Files.size(inOutPdf);
+            boolean posix = inOutPdf.getFileSystem().supportedFileAttributeViews().contains("posix");
+            if (posix)
+                Files.setPosixFilePermissions(inOutPdf, PosixFilePermissions.fromString("rw-r-----"));
+
+            Main main = new Main();
+            int exitCode = new CommandLine(main).execute("-pw", "testOwner",
+                    "--load-mode", "MAPPED",
+                    "-out", inOutPdf.toString()
+                    , inOutPdf.toString()
+                    , inOutPdf.toString());
+            Assertions.assertEquals(0, exitCode);
+            Assertions.assertEquals(0, main.executeCommands());
+
+            Assertions.assertTrue(Files.size(inOutPdf) > orgFileSize);
+            if (posix)
+                Assertions.assertEquals(PosixFilePermissions.fromString("rw-r-----"), Files.getPosixFilePermissions(inOutPdf));
+            Files.delete(inOutPdf);
+        });
+    }
+
+    @Test
+    void test_failed_save_keeps_output() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path outPdf = Files.createTempFile("jPdfToolTest", ".pdf");
+            Files.writeString(outPdf, "original");
+
+            Assertions.assertThrows(IOException.class, () -> new FailingExecuter().saveClosedDocument(outPdf));
+
+            // The existing file is not replaced and the temporary file is removed.
+            Assertions.assertEquals("original", Files.readString(outPdf));
+            try (var files = Files.list(outPdf.getParent())) {
+                Assertions.assertTrue(files.noneMatch(f -> f.getFileName().toString().startsWith("." + outPdf.getFileName())));
+            }
+            Files.delete(outPdf);
+        });
+    }
+
+    /**
+     * Saves a document that can't be written.
+     */
+    private static final class FailingExecuter extends CommandExecuter {
+
+        FailingExecuter() {
+            super(List.of());
+        }
+
+        void saveClosedDocument(Path file) throws Exception {
+            PDDocument document = new PDDocument();
+            document.close();
+            saveDocument(document, "", "", new AccessPermission(), 128, file, null);
+        }
+    }
+
+    @Test
+    void test_batch() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path testPdf = Paths.get(Objects.requireNonNull(MainTest.class.getResource("/Test.pdf")).toURI());
+            String in = testPdf.toString().replace("\\", "\\\\");
+
+            Path outPdf1 = Files.createTempFile("jPdfToolTest", ".pdf");
+            Path outPdf2 = Files.createTempFile("jPdfToolTest", ".pdf");
+            Path manifest = Files.createTempFile("jPdfToolTest", ".jsonl");
+            Files.writeString(manifest, String.join("\n",
+                    "# Batch test",
+                    String.format("{\"inputs\": [\"%s\", \"%s\"], \"out\": \"%s\", \"password\": \"testOwner\", \"userPassword\": \"test123\", \"canPrint\": false}",
+                            in, in, outPdf1.toString().replace("\\", "\\\\")),
+                    "",
+                    String.format("{\"inputs\": [\"%s\"], \"out\": \"%s\", \"password\": \"testOwner\"}",
+                            in, outPdf2.toString().replace("\\", "\\\\"))));
+
+            Main main = new Main();
+            int exitCode = new CommandLine(main).execute("--batch", manifest.toString(), "--parallel", "2");
+            Assertions.assertEquals(0, exitCode);
+
+            Assertions.assertTrue(main.isCli());
+            int code = main.executeCommands();
+            Assertions.assertEquals(0, code);
+
+            long newFileSize1 = Files.size(outPdf1);
+            long newFileSize2 = Files.size(outPdf2);
+            System.out.println("Created Files: " + outPdf1 + " size " + newFileSize1 + ", " + outPdf2 + " size " + newFileSize2 + " bytes");
+            Assertions.assertTrue(newFileSize1 > newFileSize2);
+
+            Files.delete(outPdf1);
+            Files.delete(outPdf2);
+            Files.delete(manifest);
+        });
+    }
+
+    @Test
+    void test_batch_errors() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path manifest = Files.createTempFile("jPdfToolTest", ".jsonl");
+            Files.writeString(manifest, "{\"inputs\": [");
+
+            Main main = new Main();
+            Assertions.assertEquals(0, new CommandLine(main).execute("--batch", manifest.toString()));
+            Assertions.assertEquals(Batch.EXIT_JOBS_FAILED, main.executeCommands());
+            Files.delete(manifest);
+
+            // A directory exists, but can't be read.
+            Path directory = Files.createTempDirectory("jPdfToolTest");
+            main = new Main();
+            Assertions.assertEquals(0, new CommandLine(main).execute("--batch", directory.toString()));
+            Assertions.assertEquals(Batch.EXIT_MANIFEST_ERROR, main.executeCommands());
+            Files.delete(directory);
+        });
+    }
+
+    @Test
+    void test_batch_rejects_modes() {
+        Assertions.assertDoesNotThrow(() -> {
+            List<Batch.Job> jobs = List.of(
+                    new Batch.Job(1, new String[]{"--stop-daemon"}, null),
+                    new Batch.Job(2, new String[]{"--serve"}, null));
+            int[] exitCodes = Batch.execute(jobs, 2);
+            Assertions.assertArrayEquals(new int[]{Batch.EXIT_INVALID_JOB, Batch.EXIT_INVALID_JOB}, exitCodes);
+        });
+    }
+
     @BeforeEach
     void setUp() {
     }
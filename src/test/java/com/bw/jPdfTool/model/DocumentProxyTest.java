@@ -0,0 +1,268 @@
+package com.bw.jPdfTool.model;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class DocumentProxyTest {
+
+    private static final int COPIES = 50;
+    private static final int RUNS = 3;
+
+    @Test
+    void test_getCopy() {
+        Assertions.assertDoesNotThrow(() -> {
+            DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+            proxy.loaderFinished(null, createDocument(10, 0), new MergeOptions());
+
+            try (PDDocument copy = proxy.getCopy()) {
+                Assertions.assertNotSame(proxy.getDocument(), copy);
+                Assertions.assertEquals(10, copy.getNumberOfPages());
+                int index = 0;
+                for (PDPage page : copy.getPages())
+                    Assertions.assertEquals(++index, (int) page.getMediaBox().getWidth());
+                // The copy is independent of the document.
+                copy.removePage(0);
+            }
+            Assertions.assertEquals(10, proxy.getDocument().getNumberOfPages());
+            proxy.close();
+        });
+    }
+
+    /**
+     * Compares {@link DocumentProxy#getCopy()} with the former copy via byte array.
+     * Not part of the test run, use "gradlew benchmark".
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmark_getCopy() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path testPdf = Paths.get(Objects.requireNonNull(DocumentProxyTest.class.getResource("/Test.pdf")).toURI());
+
+            DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+            PDDocument document = Loader.loadPDF(testPdf.toFile(), "testOwner");
+            document.setAllSecurityToBeRemoved(true);
+            PDFMergerUtility merger = new PDFMergerUtility();
+            for (int i = 1; i < COPIES; ++i) {
+                try (PDDocument other = Loader.loadPDF(testPdf.toFile(), "testOwner")) {
+                    merger.appendDocument(document, other);
+                }
+            }
+            proxy.setDocument(document);
+            final int pageCount = document.getNumberOfPages();
+            System.out.println("Benchmark document with " + pageCount + " pages");
+
+            for (int run = 1; run <= RUNS; ++run) {
+                long allocated = getAllocatedBytes();
+                long start = System.nanoTime();
+                try (PDDocument copy = copyViaByteArray(document)) {
+                    Assertions.assertEquals(pageCount, copy.getNumberOfPages());
+                }
+                System.out.printf("Run %d byte array copy: %d ms, %d MB allocated%n", run,
+                        (System.nanoTime() - start) / 1000000, (getAllocatedBytes() - allocated) / (1024 * 1024));
+
+                allocated = getAllocatedBytes();
+                start = System.nanoTime();
+                try (PDDocument copy = proxy.getCopy()) {
+                    Assertions.assertEquals(pageCount, copy.getNumberOfPages());
+                }
+                System.out.printf("Run %d getCopy: %d ms, %d MB allocated%n", run,
+                        (System.nanoTime() - start) / 1000000, (getAllocatedBytes() - allocated) / (1024 * 1024));
+            }
+            proxy.close();
+        });
+    }
+
+    @Test
+    void test_zipperMerge() {
+        Assertions.assertDoesNotThrow(() -> {
+            DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+            zipperMerge(proxy, 7);
+            proxy.close();
+        });
+    }
+
+    /**
+     * Zipper merge of two large documents (fronts and backs of a scan).
+     * Not part of the test run, use "gradlew benchmark".
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmark_zipperMerge() {
+        Assertions.assertDoesNotThrow(() -> {
+            final int pagesPerDocument = 5000;
+            for (int run = 1; run <= RUNS; ++run) {
+                DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+                long nanos = zipperMerge(proxy, pagesPerDocument);
+                System.out.printf("Run %d zipper merge of 2 x %d pages: %d ms%n", run, pagesPerDocument,
+                        nanos / 1000000);
+                proxy.close();
+            }
+        });
+    }
+
+    /**
+     * Loads the fronts, merges the backs and checks the order: front 1, back 1, front 2, back 2, ...
+     *
+     * @return The duration of the merge in nanoseconds.
+     */
+    private static long zipperMerge(DocumentProxy proxy, int pagesPerDocument) {
+        MergeOptions mo = new MergeOptions();
+        mo.startPageNb = 2;
+        mo.segmentLength = 1;
+        mo.gapLength = 1;
+
+        proxy.loaderFinished(null, createDocument(pagesPerDocument, 0), new MergeOptions());
+        PDDocument backs = createDocument(pagesPerDocument, pagesPerDocument);
+        long start = System.nanoTime();
+        proxy.loaderFinished(null, backs, mo);
+        long nanos = System.nanoTime() - start;
+
+        PDDocument document = proxy.getDocument();
+        Assertions.assertEquals(2 * pagesPerDocument, document.getNumberOfPages());
+        int index = 0;
+        for (PDPage page : document.getPages()) {
+            int expected = (index % 2 == 0) ? index / 2 : pagesPerDocument + index / 2;
+            Assertions.assertEquals(expected + 1, (int) page.getMediaBox().getWidth());
+            ++index;
+        }
+        return nanos;
+    }
+
+    @Test
+    void test_batch() {
+        Assertions.assertDoesNotThrow(() -> {
+            DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+            proxy.loaderFinished(null, createDocument(10, 0), new MergeOptions());
+
+            AtomicInteger loaded = new AtomicInteger();
+            proxy.addDocumentConsumer(new DocumentProxy.DocumentConsumer() {
+                @Override
+                public void documentLoaded(PDDocument document) {
+                    loaded.incrementAndGet();
+                }
+
+                @Override
+                public void failed(String error) {
+                }
+            });
+            loaded.set(0);
+
+            proxy.beginBatch();
+            // Move the first 3 pages to the end.
+            for (int i = 0; i < 3; ++i)
+                proxy.movePage(1, 9);
+            proxy.deletePage(1);
+            proxy.rotatePage(1, 90);
+            // The page tree is not changed before commit.
+            Assertions.assertEquals(10, proxy.getDocument().getNumberOfPages());
+            Assertions.assertEquals(0, loaded.get());
+            proxy.commitBatch();
+
+            Assertions.assertEquals(1, loaded.get());
+            int[] expected = {5, 6, 7, 8, 9, 10, 1, 2, 3};
+            Assertions.assertEquals(expected.length, proxy.getDocument().getNumberOfPages());
+            Assertions.assertEquals(expected.length, proxy.getPageCount());
+            int index = 0;
+            for (PDPage page : proxy.getDocument().getPages()) {
+                Assertions.assertEquals(expected[index], (int) page.getMediaBox().getWidth());
+                Assertions.assertEquals(index == 0 ? 90 : 0, page.getRotation());
+                Assertions.assertEquals(index + 1, proxy.getPage(index + 1).pageNb);
+                ++index;
+            }
+            proxy.close();
+        });
+    }
+
+    @Test
+    void test_pageGeometry() {
+        Assertions.assertDoesNotThrow(() -> {
+            DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+            proxy.loaderFinished(null, createDocument(5, 0), new MergeOptions());
+
+            // Known before any page is rendered.
+            for (int i = 1; i <= 5; ++i) {
+                Page page = proxy.getPage(i);
+                Assertions.assertEquals(0, page.imageWidth);
+                Assertions.assertEquals(i, page.width);
+                Assertions.assertEquals(100, page.height);
+            }
+            proxy.rotatePage(2, 90);
+            Assertions.assertEquals(100, proxy.getPage(2).width);
+            Assertions.assertEquals(2, proxy.getPage(2).height);
+            proxy.close();
+        });
+    }
+
+    @Test
+    void test_renderCacheHitAfterRotation() {
+        Assertions.assertDoesNotThrow(() -> {
+            Path directory = Files.createTempDirectory("jPdfToolTest");
+            DiskRenderCache cache = new DiskRenderCache(directory, 10 * 1024 * 1024);
+            DocumentProxy proxy = new DocumentProxy(new RenderQueue(1));
+            // Landscape page, 201 x 100 points.
+            proxy.loaderFinished(null, createDocument(1, 200), new MergeOptions());
+            proxy.setPreviewWidth(300);
+
+            Page page = proxy.getPage(1);
+            final int dpi = proxy.getTargetDpi(page);
+            PDPage pdPage = proxy.getDocument().getPage(0);
+            BufferedImage image = new PDFRenderer(proxy.getDocument()).renderImageWithDPI(0, dpi);
+            cache.put(DiskRenderCache.getKey(pdPage, dpi, new HashMap<>()), image, pdPage.getRotation());
+
+            proxy.rotatePage(1, 90);
+            Assertions.assertEquals(dpi, proxy.getTargetDpi(page));
+            pdPage = proxy.getDocument().getPage(0);
+            BufferedImage cached = cache.get(DiskRenderCache.getKey(pdPage, dpi, new HashMap<>()), pdPage.getRotation());
+            Assertions.assertNotNull(cached);
+            Assertions.assertEquals(image.getHeight(), cached.getWidth());
+            Assertions.assertEquals(image.getWidth(), cached.getHeight());
+            proxy.close();
+
+            try (var files = Files.list(directory)) {
+                for (Path f : (Iterable<Path>) files::iterator)
+                    Files.delete(f);
+            }
+            Files.delete(directory);
+        });
+    }
+
+    /**
+     * Creates a document with empty pages, the width of each page is its number.
+     */
+    private static PDDocument createDocument(int pageCount, int firstPageNb) {
+        PDDocument document = new PDDocument();
+        for (int i = 1; i <= pageCount; ++i)
+            document.addPage(new PDPage(new PDRectangle(firstPageNb + i, 100)));
+        return document;
+    }
+
+    private static PDDocument copyViaByteArray(PDDocument document) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(5 * 1024 * 1024);
+        document.save(os, CompressParameters.NO_COMPRESSION);
+        return Loader.loadPDF(os.toByteArray());
+    }
+
+    private static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean)
+            return bean.getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+}